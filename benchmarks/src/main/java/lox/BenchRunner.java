@@ -0,0 +1,209 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * BenchRunner
+ *
+ * Runs every program in the bench/ corpus N times per engine through
+ * Lox.run, checks the printed output against the program's "// output:"
+ * comment and records wall time, allocated bytes and GC activity per run.
+ *
+ * Usage: BenchRunner [--runs N] [--engines default,lazy,parallel] [--out results.csv|results.json] [dir]
+ */
+public class BenchRunner {
+    private static final String[] ENGINES = {"default", "lazy", "parallel"};
+
+    static class Result {
+        final String engine;
+        final String benchmark;
+        final int run;
+        final double wallMillis;
+        final long allocatedBytes;
+        final long gcCount;
+        final long gcMillis;
+        final boolean ok;
+
+        Result(String engine, String benchmark, int run, double wallMillis,
+               long allocatedBytes, long gcCount, long gcMillis, boolean ok) {
+            this.engine = engine;
+            this.benchmark = benchmark;
+            this.run = run;
+            this.wallMillis = wallMillis;
+            this.allocatedBytes = allocatedBytes;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+            this.ok = ok;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int runs = 10;
+        List<String> engines = Arrays.asList(ENGINES);
+        Path out = Paths.get("bench_results.csv");
+        Path dir = Paths.get("bench");
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--runs":
+                    runs = Integer.parseInt(args[++i]);
+                    break;
+                case "--engines":
+                    engines = Arrays.asList(args[++i].split(","));
+                    break;
+                case "--out":
+                    out = Paths.get(args[++i]);
+                    break;
+                default:
+                    dir = Paths.get(args[i]);
+            }
+        }
+
+        List<Path> programs;
+        try (Stream<Path> files = Files.list(dir)) {
+            programs = files.filter(path -> path.toString().endsWith(".lox")).sorted().collect(Collectors.toList());
+        }
+
+        List<Result> results = new ArrayList<>();
+        boolean failed = false;
+        for (String engine : engines) {
+            configure(engine);
+            for (Path program : programs) {
+                String source = new String(Files.readAllBytes(program), StandardCharsets.UTF_8);
+                String expected = expectedOutput(source);
+                String name = program.getFileName().toString().replace(".lox", "");
+
+                double best = Double.MAX_VALUE;
+                for (int run = 1; run <= runs; run++) {
+                    Result result = run(engine, name, run, source, expected);
+                    results.add(result);
+                    best = Math.min(best, result.wallMillis);
+                    failed |= !result.ok;
+                }
+                System.out.printf("%-10s %-20s best %8.2f ms%n", engine, name, best);
+            }
+        }
+
+        if (out.toString().endsWith(".json")) {
+            writeJson(out, results);
+        } else {
+            writeCsv(out, results);
+        }
+
+        if (failed) {
+            System.err.println("Some programs printed unexpected output, see " + out + ".");
+            System.exit(1);
+        }
+    }
+
+    private static void configure(String engine) {
+        if (!Arrays.asList(ENGINES).contains(engine)) {
+            throw new IllegalArgumentException("Unknown engine '" + engine + "'.");
+        }
+        Lox.lazyParse = engine.equals("lazy");
+        Lox.parallelParse = engine.equals("parallel");
+    }
+
+    private static Result run(String engine, String name, int run, String source, String expected) {
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        Lox.hadError = false;
+        Lox.hadRuntimeError = false;
+
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        try {
+            System.setOut(new PrintStream(captured, true));
+            Lox.run(source, null);
+        } finally {
+            System.setOut(stdout);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        boolean ok = !Lox.hadError && !Lox.hadRuntimeError
+            && captured.toString().equals(expected);
+        return new Result(engine, name, run, elapsed / 1e6, allocatedBytes() - allocated,
+            gcCount() - gcCount, gcMillis() - gcMillis, ok);
+    }
+
+    // Collects the lines after "// output:", or the rest of that line.
+    static String expectedOutput(String source) {
+        StringBuilder expected = new StringBuilder();
+        boolean inOutput = false;
+        for (String line : source.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("// output:")) {
+                inOutput = true;
+                String rest = trimmed.substring("// output:".length()).trim();
+                if (!rest.isEmpty()) expected.append(rest).append(System.lineSeparator());
+            } else if (inOutput && trimmed.startsWith("//")) {
+                expected.append(trimmed.substring(2).trim()).append(System.lineSeparator());
+            }
+        }
+        return expected.toString();
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)threads).getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static void writeCsv(Path out, List<Result> results) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out))) {
+            writer.println("engine,benchmark,run,wall_ms,allocated_bytes,gc_count,gc_ms,ok");
+            for (Result r : results) {
+                writer.printf("%s,%s,%d,%.3f,%d,%d,%d,%b%n", r.engine, r.benchmark, r.run,
+                    r.wallMillis, r.allocatedBytes, r.gcCount, r.gcMillis, r.ok);
+            }
+        }
+    }
+
+    private static void writeJson(Path out, List<Result> results) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out))) {
+            writer.println("[");
+            for (int i = 0; i < results.size(); i++) {
+                Result r = results.get(i);
+                writer.printf("  {\"engine\": \"%s\", \"benchmark\": \"%s\", \"run\": %d, \"wall_ms\": %.3f, "
+                    + "\"allocated_bytes\": %d, \"gc_count\": %d, \"gc_ms\": %d, \"ok\": %b}%s%n",
+                    r.engine, r.benchmark, r.run, r.wallMillis, r.allocatedBytes, r.gcCount,
+                    r.gcMillis, r.ok, i < results.size() - 1 ? "," : "");
+            }
+            writer.println("]");
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PipelineBenchmark
+ *
+ * Measures each interpreter stage on its own over the programs in
+ * resources/programs. Run with "-prof gc" to get allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PipelineBenchmark {
+    @Param({"fib", "loop", "classes", "closures", "strings"})
+    public String program;
+
+    private String source;
+    private List<Token> tokens;
+    private List<Stmt> statements;
+    private GlobalSlots slots;
+    private Diagnostics diagnostics;
+
+    /*
+     * A fresh interpreter for every execute() call, so each run starts from
+     * clean globals, as a real run would. Its own state, so the per-call
+     * setup stays out of the much shorter scan, parse and resolve runs.
+     */
+    @State(Scope.Thread)
+    public static class Run {
+        private Interpreter interpreter;
+
+        @Setup(Level.Invocation)
+        public void setUp(PipelineBenchmark benchmark) {
+            // Print statements should cost the same as in a real run, minus the terminal.
+            interpreter = new Interpreter(new PrintWriter(Writer.nullWriter()), benchmark.diagnostics, benchmark.slots);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        try (InputStream in = PipelineBenchmark.class.getResourceAsStream("/programs/" + program + ".lox")) {
+            source = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        diagnostics = new Diagnostics(System.err);
+        tokens = new Scanner(source, diagnostics).scanTokens();
+        statements = new Parser(tokens, false, diagnostics).parse();
+        slots = new GlobalSlots();
+        new Resolver(diagnostics, slots).resolve(statements);
+        if (diagnostics.hadError()) throw new IllegalStateException("Benchmark program " + program + " does not compile.");
+    }
+
+    @Benchmark
+    public List<Token> scan() {
+        return new Scanner(source).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(tokens).parse();
+    }
+
+    @Benchmark
+    public List<Stmt> resolve() {
+        new Resolver(new Diagnostics(), slots).resolve(statements);
+        return statements;
+    }
+
+    @Benchmark
+    public Interpreter execute(Run run) {
+        run.interpreter.interpreter(statements);
+        return run.interpreter;
+    }
+}
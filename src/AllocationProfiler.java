@@ -0,0 +1,192 @@
+package lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * AllocationProfiler
+ *
+ * Attributes the objects the interpreter allocates on behalf of a script
+ * (environments, instances, fields, lists, functions, bound methods, boxed
+ * numbers and strings) to the script line whose statement was executing. Sizes are
+ * shallow estimates for a 64-bit JVM with compressed oops, good enough to
+ * rank sites, not to add up to the GC log.
+ */
+class AllocationProfiler {
+    // null unless tracking; a script started meanwhile runs on an InstrumentedInterpreter
+    static AllocationProfiler active = null;
+
+    enum Kind {
+        // Environment + its empty HashMap
+        ENVIRONMENT("Environment", 64),
+        // LoxInstance + its empty HashMap
+        INSTANCE("LoxInstance", 64),
+        // a new field: HashMap.Node + its share of the table
+        FIELD("Field", 40),
+        // LoxList + ArrayList + its empty array
+        LIST("LoxList", 56),
+        FUNCTION("LoxFunction", 24),
+        // the bound LoxFunction and the Environment holding "this" are counted apart
+        BOUND_METHOD("BoundMethod", 24),
+        NUMBER("Double", 16),
+        STRING("String", 40);
+
+        final String label;
+        final long bytes;
+
+        Kind(String label, long bytes) {
+            this.label = label;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    static class Site {
+        final String script;
+        final int line;
+        final Kind kind;
+        long count;
+        long bytes;
+
+        Site(String script, int line, Kind kind) {
+            this.script = script;
+            this.line = line;
+            this.kind = kind;
+        }
+    }
+
+    // Per-thread counts, indexed by line * KINDS.length + kind.
+    private static class Table {
+        long[] counts = new long[64 * KINDS.length];
+        long[] bytes = new long[64 * KINDS.length];
+
+        void add(int line, Kind kind, long size) {
+            int index = Math.max(line, 0) * KINDS.length + kind.ordinal();
+            if (index >= counts.length) {
+                int length = Math.max(counts.length * 2, index + KINDS.length);
+                long[] counts = new long[length];
+                long[] bytes = new long[length];
+                System.arraycopy(this.counts, 0, counts, 0, this.counts.length);
+                System.arraycopy(this.bytes, 0, bytes, 0, this.bytes.length);
+                this.counts = counts;
+                this.bytes = bytes;
+            }
+            counts[index]++;
+            bytes[index] += size;
+        }
+    }
+
+    private static class Frame {
+        String script = "<init>";
+        int line = 0;
+        final Map<String, Table> tables = new HashMap<>();
+    }
+
+    private final List<Frame> frames = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Frame> current = ThreadLocal.withInitial(this::register);
+
+    static AllocationProfiler start() {
+        AllocationProfiler profiler = new AllocationProfiler();
+        active = profiler;
+        return profiler;
+    }
+
+    private Frame register() {
+        Frame frame = new Frame();
+        frames.add(frame);
+        return frame;
+    }
+
+    // Makes stmt the current site; returns the previous line for exit().
+    int enter(String script, Stmt stmt) {
+        Frame frame = current.get();
+        int previous = frame.line;
+        int line = Lines.of(stmt);
+        frame.script = script;
+        if (line != -1) frame.line = line;
+        return previous;
+    }
+
+    // 调用返回后恢复调用方所在的行
+    void exit(String script, int previous) {
+        Frame frame = current.get();
+        frame.script = script;
+        frame.line = previous;
+    }
+
+    void record(Kind kind) {
+        record(kind, kind.bytes);
+    }
+
+    void record(Kind kind, long bytes) {
+        Frame frame = current.get();
+        frame.tables.computeIfAbsent(frame.script, script -> new Table()).add(frame.line, kind, bytes);
+    }
+
+    // Records the result of an operator when it is a freshly allocated value.
+    void value(Object value) {
+        if (value instanceof Double) {
+            record(Kind.NUMBER);
+        } else if (value instanceof String) {
+            record(Kind.STRING, stringBytes((String)value));
+        }
+    }
+
+    // header + fields, then a Latin-1 byte[] padded to 8 bytes
+    static long stringBytes(String value) {
+        return Kind.STRING.bytes + ((16 + value.length() + 7) & ~7);
+    }
+
+    void stop() {
+        if (active == this) active = null;
+    }
+
+    // Merges all threads into one row per script, line and kind, by bytes.
+    List<Site> report() {
+        Map<String, Site> rows = new HashMap<>();
+        for (Frame frame : frames) {
+            for (Map.Entry<String, Table> entry : frame.tables.entrySet()) {
+                Table table = entry.getValue();
+                for (int index = 0; index < table.counts.length; index++) {
+                    if (table.counts[index] == 0) continue;
+                    int line = index / KINDS.length;
+                    Kind kind = KINDS[index % KINDS.length];
+                    Site row = rows.computeIfAbsent(entry.getKey() + ":" + line + " " + kind,
+                        key -> new Site(entry.getKey(), line, kind));
+                    row.count += table.counts[index];
+                    row.bytes += table.bytes[index];
+                }
+            }
+        }
+
+        List<Site> ranked = new ArrayList<>(rows.values());
+        ranked.sort((a, b) -> Long.compare(b.bytes, a.bytes));
+        return ranked;
+    }
+
+    static void print(List<Site> ranked, PrintStream out, int limit) {
+        out.printf("%-24s %6s  %-12s %12s %14s%n", "script", "line", "kind", "count", "bytes");
+        for (int i = 0; i < ranked.size() && i < limit; i++) {
+            Site row = ranked.get(i);
+            out.printf("%-24s %6d  %-12s %12d %14d%n", row.script, row.line, row.kind.label, row.count, row.bytes);
+        }
+    }
+
+    static void write(List<Site> ranked, Path out) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out))) {
+            writer.println("script,line,kind,count,bytes");
+            for (Site row : ranked) {
+                writer.println(row.script + "," + row.line + "," + row.kind.label + "," + row.count + "," + row.bytes);
+            }
+        }
+    }
+}
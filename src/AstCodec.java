@@ -0,0 +1,624 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AstCodec
+ *
+ * Compact binary form of a resolved program: a string table followed by the
+ * statement tree, with each variable's resolved depth stored on its node.
+ * Global slots are numbered per engine, so they are assigned again on load.
+ */
+class AstCodec {
+    static final int MAGIC = 0x4c4f5843; // "LOXC"
+    static final int VERSION = 3;
+
+    private static final byte NULL = 0;
+
+    // Stmt tags
+    private static final byte BLOCK = 1;
+    private static final byte EXPRESSION = 2;
+    private static final byte PRINT = 3;
+    private static final byte VAR = 4;
+    private static final byte IF = 5;
+    private static final byte WHILE = 6;
+    private static final byte FUNCTION = 7;
+    private static final byte LAZY_FUNCTION = 8;
+    private static final byte RETURN = 9;
+    private static final byte CLASS = 10;
+    private static final byte YIELD = 11;
+    // a FUNCTION whose body yields
+    private static final byte GENERATOR = 12;
+    private static final byte IMPORT = 13;
+
+    // Expr tags
+    private static final byte ASSIGN = 20;
+    private static final byte TERNARY = 21;
+    private static final byte BINARY = 22;
+    private static final byte GROUPING = 23;
+    private static final byte LITERAL = 24;
+    private static final byte LOGICAL = 25;
+    private static final byte UNARY = 26;
+    private static final byte VARIABLE = 27;
+    private static final byte CALL = 28;
+    private static final byte GET = 29;
+    private static final byte SET = 30;
+    private static final byte THIS = 31;
+    private static final byte SUPER = 32;
+
+    // literal tags
+    private static final byte NIL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte NUMBER = 3;
+    private static final byte STRING = 4;
+
+    static byte[] encode(List<Stmt> statements) {
+        Writer writer = new Writer();
+        writer.writeStmts(statements);
+        return writer.toByteArray();
+    }
+
+    // Numbers the globals from slots; with null they are looked up by name.
+    static List<Stmt> decode(ByteBuffer buffer, GlobalSlots slots) {
+        return new Reader(buffer, slots).read();
+    }
+
+    private static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        byte[] toByteArray() {
+            try {
+                ByteArrayOutputStream file = new ByteArrayOutputStream(bytes.size() + strings.size() * 8 + 16);
+                DataOutputStream header = new DataOutputStream(file);
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                header.writeInt(strings.size());
+                for (String string : strings.keySet()) {
+                    byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+                    header.writeInt(utf8.length);
+                    header.write(utf8);
+                }
+                out.flush();
+                bytes.writeTo(file);
+                return file.toByteArray();
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+        }
+
+        void writeStmts(List<? extends Stmt> statements) {
+            writeInt(statements.size());
+            for (Stmt statement : statements) {
+                writeStmt(statement);
+            }
+        }
+
+        private void writeStmt(Stmt stmt) {
+            if (stmt == null) {
+                writeByte(NULL);
+            } else {
+                stmt.accept(this);
+            }
+        }
+
+        private void writeExpr(Expr expr) {
+            if (expr == null) {
+                writeByte(NULL);
+            } else {
+                expr.accept(this);
+            }
+        }
+
+        private void writeExprs(List<Expr> exprs) {
+            writeInt(exprs.size());
+            for (Expr expr : exprs) {
+                writeExpr(expr);
+            }
+        }
+
+
+        private void writeToken(Token token) {
+            if (token == null) {
+                writeByte(NULL);
+                return;
+            }
+
+            writeByte((byte)(token.type.ordinal() + 1));
+            writeString(token.lexeme);
+            writeLiteral(token.literal);
+            writeInt(token.line);
+        }
+
+        private void writeTokens(List<Token> tokens) {
+            writeInt(tokens.size());
+            for (Token token : tokens) {
+                writeToken(token);
+            }
+        }
+
+        private void writeLiteral(Object value) {
+            if (value == null) {
+                writeByte(NIL);
+            } else if (value instanceof Boolean) {
+                writeByte((Boolean)value ? TRUE : FALSE);
+            } else if (value instanceof Double) {
+                writeByte(NUMBER);
+                try {
+                    out.writeDouble((Double)value);
+                } catch (IOException error) {
+                    throw new UncheckedIOException(error);
+                }
+            } else {
+                writeByte(STRING);
+                writeString((String)value);
+            }
+        }
+
+        private void writeString(String string) {
+            Integer index = strings.get(string);
+            if (index == null) {
+                index = strings.size();
+                strings.put(string, index);
+            }
+            writeInt(index);
+        }
+
+        private void writeByte(byte value) {
+            try {
+                out.writeByte(value);
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+        }
+
+        private void writeInt(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+        }
+
+        private void writeContext(Resolver.Context context) {
+            List<Map<String, Boolean>> scopes = context.scopes();
+            writeInt(scopes.size());
+            for (Map<String, Boolean> scope : scopes) {
+                writeInt(scope.size());
+                for (Map.Entry<String, Boolean> entry : scope.entrySet()) {
+                    writeString(entry.getKey());
+                    writeByte(entry.getValue() ? TRUE : FALSE);
+                }
+            }
+            writeInt(context.type());
+            writeInt(context.currentClass());
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            writeByte(BLOCK);
+            writeStmts(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            writeByte(EXPRESSION);
+            writeExpr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            writeByte(PRINT);
+            writeExpr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            writeByte(VAR);
+            writeToken(stmt.name);
+            writeExpr(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            writeByte(IF);
+            writeExpr(stmt.condition);
+            writeStmt(stmt.thenBranch);
+            writeStmt(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            writeByte(WHILE);
+            writeToken(stmt.keyword);
+            writeExpr(stmt.condition);
+            writeStmt(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            List<Stmt> body = stmt.body;
+            if (body == null) {
+                // 未调用过的延迟函数，只保存函数体的 token 和解析作用域
+                writeByte(LAZY_FUNCTION);
+                writeToken(stmt.name);
+                writeTokens(stmt.params);
+                writeTokens(stmt.lazyBody.tokens());
+                writeContext(stmt.lazyBody.context());
+                return null;
+            }
+
+            writeByte(stmt.generator ? GENERATOR : FUNCTION);
+            writeToken(stmt.name);
+            writeTokens(stmt.params);
+            writeStmts(body);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            writeByte(RETURN);
+            writeToken(stmt.keyword);
+            writeExpr(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitYieldStmt(Stmt.Yield stmt) {
+            writeByte(YIELD);
+            writeToken(stmt.keyword);
+            writeExpr(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            writeByte(CLASS);
+            writeToken(stmt.name);
+            writeExpr(stmt.superclass);
+            writeStmts(stmt.methods);
+            return null;
+        }
+
+        @Override
+        public Void visitImportStmt(Stmt.Import stmt) {
+            writeByte(IMPORT);
+            writeToken(stmt.keyword);
+            writeToken(stmt.path);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            writeByte(ASSIGN);
+            writeToken(expr.name);
+            writeExpr(expr.value);
+            writeInt(expr.depth);
+            return null;
+        }
+
+        @Override
+        public Void visitTernaryExpr(Expr.Ternary expr) {
+            writeByte(TERNARY);
+            writeExpr(expr.condition);
+            writeExpr(expr.leftExpr);
+            writeExpr(expr.rightExpr);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            writeByte(BINARY);
+            writeExpr(expr.left);
+            writeToken(expr.operator);
+            writeExpr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            writeByte(GROUPING);
+            writeExpr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            writeByte(LITERAL);
+            writeLiteral(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            writeByte(LOGICAL);
+            writeExpr(expr.left);
+            writeToken(expr.operator);
+            writeExpr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            writeByte(UNARY);
+            writeToken(expr.operator);
+            writeExpr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            writeByte(VARIABLE);
+            writeToken(expr.name);
+            writeInt(expr.depth);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            writeByte(CALL);
+            writeExpr(expr.callee);
+            writeToken(expr.paren);
+            writeExprs(expr.arguments);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            writeByte(GET);
+            writeExpr(expr.object);
+            writeToken(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            writeByte(SET);
+            writeExpr(expr.object);
+            writeToken(expr.name);
+            writeExpr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            writeByte(THIS);
+            writeToken(expr.keyword);
+            writeInt(expr.depth);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            writeByte(SUPER);
+            writeToken(expr.keyword);
+            writeToken(expr.method);
+            writeInt(expr.depth);
+            return null;
+        }
+    }
+
+    private static class Reader {
+        private static final TokenType[] TYPES = TokenType.values();
+
+        private final ByteBuffer in;
+        private final GlobalSlots slots;
+        private String[] strings;
+
+        Reader(ByteBuffer in, GlobalSlots slots) {
+            this.in = in;
+            this.slots = slots;
+        }
+
+        List<Stmt> read() {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IllegalStateException("Not a compiled Lox program.");
+            }
+
+            strings = new String[in.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] utf8 = new byte[in.getInt()];
+                in.get(utf8);
+                strings[i] = new String(utf8, StandardCharsets.UTF_8);
+            }
+
+            return readStmts();
+        }
+
+        private List<Stmt> readStmts() {
+            int size = in.getInt();
+            List<Stmt> statements = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                statements.add(readStmt());
+            }
+            return statements;
+        }
+
+        private Stmt readStmt() {
+            byte tag = in.get();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case BLOCK:
+                    return new Stmt.Block(readStmts());
+                case EXPRESSION:
+                    return new Stmt.Expression(readExpr());
+                case PRINT:
+                    return new Stmt.Print(readExpr());
+                case VAR:
+                    return new Stmt.Var(readToken(), readExpr());
+                case IF:
+                    return new Stmt.If(readExpr(), readStmt(), readStmt());
+                case WHILE:
+                    return new Stmt.While(readToken(), readExpr(), readStmt());
+                case FUNCTION:
+                    return new Stmt.Function(readToken(), readTokens(), readStmts());
+                case GENERATOR: {
+                    Stmt.Function function = new Stmt.Function(readToken(), readTokens(), readStmts());
+                    function.generator = true;
+                    return function;
+                }
+                case LAZY_FUNCTION:
+                    return readLazyFunction();
+                case RETURN:
+                    return new Stmt.Return(readToken(), readExpr());
+                case YIELD:
+                    return new Stmt.Yield(readToken(), readExpr());
+                case CLASS: {
+                    Token name = readToken();
+                    Expr.Variable superclass = (Expr.Variable)readExpr();
+                    List<Stmt.Function> methods = new ArrayList<>();
+                    for (Stmt method : readStmts()) {
+                        methods.add((Stmt.Function)method);
+                    }
+                    return new Stmt.Class(name, superclass, methods);
+                }
+                case IMPORT:
+                    return new Stmt.Import(readToken(), readToken());
+            }
+
+            throw new IllegalStateException("Unknown statement tag " + tag + ".");
+        }
+
+        private Stmt readLazyFunction() {
+            Token name = readToken();
+            List<Token> params = readTokens();
+            List<Token> tokens = readTokens();
+            Token last = tokens.get(tokens.size() - 1);
+            tokens.add(new Token(TokenType.EOF, "", null, last.line));
+
+            List<Map<String, Boolean>> scopes = new ArrayList<>();
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                Map<String, Boolean> scope = new HashMap<>();
+                int size = in.getInt();
+                for (int j = 0; j < size; j++) {
+                    scope.put(readString(), in.get() == TRUE);
+                }
+                scopes.add(scope);
+            }
+
+            LazyBody body = new LazyBody(tokens, 0, tokens.size() - 2);
+            body.defer(new Resolver.Context(scopes, in.getInt(), in.getInt(), slots));
+            return new Stmt.Function(name, params, body);
+        }
+
+        private Expr readExpr() {
+            byte tag = in.get();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case ASSIGN: {
+                    Expr.Assign expr = new Expr.Assign(readToken(), readExpr());
+                    expr.depth = in.getInt();
+                    if (expr.depth == -1 && slots != null) expr.slot = slots.slot(expr.name.lexeme);
+                    return expr;
+                }
+                case TERNARY:
+                    return new Expr.Ternary(readExpr(), readExpr(), readExpr());
+                case BINARY:
+                    return new Expr.Binary(readExpr(), readToken(), readExpr());
+                case GROUPING:
+                    return new Expr.Grouping(readExpr());
+                case LITERAL:
+                    return new Expr.Literal(readLiteral());
+                case LOGICAL:
+                    return new Expr.Logical(readExpr(), readToken(), readExpr());
+                case UNARY:
+                    return new Expr.Unary(readToken(), readExpr());
+                case VARIABLE: {
+                    Expr.Variable expr = new Expr.Variable(readToken());
+                    expr.depth = in.getInt();
+                    if (expr.depth == -1 && slots != null) expr.slot = slots.slot(expr.name.lexeme);
+                    return expr;
+                }
+                case CALL:
+                    return new Expr.Call(readExpr(), readToken(), readExprs());
+                case GET:
+                    return new Expr.Get(readExpr(), readToken());
+                case SET:
+                    return new Expr.Set(readExpr(), readToken(), readExpr());
+                case THIS: {
+                    Expr.This expr = new Expr.This(readToken());
+                    expr.depth = in.getInt();
+                    return expr;
+                }
+                case SUPER: {
+                    Expr.Super expr = new Expr.Super(readToken(), readToken());
+                    expr.depth = in.getInt();
+                    return expr;
+                }
+            }
+
+            throw new IllegalStateException("Unknown expression tag " + tag + ".");
+        }
+
+        private List<Expr> readExprs() {
+            int size = in.getInt();
+            List<Expr> exprs = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                exprs.add(readExpr());
+            }
+            return exprs;
+        }
+
+
+        private Token readToken() {
+            byte type = in.get();
+            if (type == NULL) return null;
+
+            String lexeme = readString();
+            Object literal = readLiteral();
+            return new Token(TYPES[type - 1], lexeme, literal, in.getInt());
+        }
+
+        private List<Token> readTokens() {
+            int size = in.getInt();
+            List<Token> tokens = new ArrayList<>(size + 1);
+            for (int i = 0; i < size; i++) {
+                tokens.add(readToken());
+            }
+            return tokens;
+        }
+
+        private Object readLiteral() {
+            byte tag = in.get();
+            switch (tag) {
+                case NIL:
+                    return null;
+                case TRUE:
+                    return true;
+                case FALSE:
+                    return false;
+                case NUMBER:
+                    return in.getDouble();
+                case STRING:
+                    return readString();
+            }
+
+            throw new IllegalStateException("Unknown literal tag " + tag + ".");
+        }
+
+        private String readString() {
+            return strings[in.getInt()];
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package lox;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Budget
+ *
+ * A limit on how much of something one execution may use, shared by its
+ * interpreter and every task forked from it: fuel, one step per loop
+ * iteration or function call, and an allocation quota, the estimated bytes
+ * of all the objects it allocates, garbage included. Each interpreter takes from the shared counter a
+ * chunk at a time and counts down locally, so the hot path is a subtraction
+ * and a compare; going past the limit ends the script with a RuntimeError.
+ */
+class Budget {
+    private final long limit;
+    private final long chunk;
+    private final String exhausted;
+    // handed out to interpreters, less what they gave back
+    private final AtomicLong reserved = new AtomicLong();
+
+    private Budget(long limit, long chunk, String exhausted) {
+        this.limit = limit;
+        this.chunk = chunk;
+        this.exhausted = exhausted;
+    }
+
+    static Budget fuel(long steps) {
+        return new Budget(steps, 1024, "Out of fuel: the script used its budget of " + steps + " steps.");
+    }
+
+    static Budget allocations(long bytes) {
+        return new Budget(bytes, 64 * 1024, "Allocation quota exceeded: the script allocated more than its quota of "
+            + bytes + " bytes.");
+    }
+
+    long limit() {
+        return limit;
+    }
+
+    // Used so far; a task still running may hold up to a chunk more.
+    long used() {
+        return Math.min(reserved.get(), limit);
+    }
+
+    /*
+     * Called when an interpreter's local count has gone below zero: takes
+     * enough to cover the overdraft, a chunk when it can, and returns what
+     * is left of it. node is where the error is reported when the limit is
+     * reached.
+     */
+    long take(long left, Object node) {
+        long needed = -left;
+        for (;;) {
+            long taken = reserved.get();
+            if (limit - taken < needed) throw error(node);
+
+            long granted = Math.min(Math.max(chunk, needed), limit - taken);
+            if (reserved.compareAndSet(taken, taken + granted)) return granted - needed;
+        }
+    }
+
+    // 解释器结束时把没用完的部分还回去，used() 才准确
+    void refund(long left) {
+        if (left > 0) reserved.addAndGet(-left);
+    }
+
+    private RuntimeError error(Object node) {
+        int line = node instanceof Token ? ((Token)node).line : Math.max(Lines.of(node), 0);
+        return new RuntimeError(new Token(TokenType.IDENTIFIER, "budget", null, line), exhausted);
+    }
+}
@@ -0,0 +1,31 @@
+package lox;
+
+import java.util.List;
+
+/**
+ * CompileError
+ *
+ * Thrown by LoxEngine.compile when a script has syntax or resolution
+ * errors; carries every diagnostic, in source order.
+ */
+public class CompileError extends RuntimeException {
+    private final List<Diagnostic> diagnostics;
+
+    CompileError(List<Diagnostic> diagnostics) {
+        super(message(diagnostics));
+        this.diagnostics = diagnostics;
+    }
+
+    public List<Diagnostic> diagnostics() {
+        return diagnostics;
+    }
+
+    private static String message(List<Diagnostic> diagnostics) {
+        StringBuilder message = new StringBuilder();
+        for (Diagnostic diagnostic : diagnostics) {
+            if (message.length() > 0) message.append('\n');
+            message.append(diagnostic);
+        }
+        return message.toString();
+    }
+}
@@ -0,0 +1,68 @@
+package lox;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CompiledScript
+ *
+ * A parsed and resolved program. The tree, with each variable's resolved
+ * depth on its node, is never changed after compile except that a lazily
+ * parsed function body is filled in once (see LazyBody). All execution
+ * state lives in the Interpreter of each run, so one CompiledScript can be
+ * executed from any number of threads at once.
+ */
+public class CompiledScript {
+    private final String name;
+    private final List<Stmt> statements;
+    // the modules and global slots of the engine that compiled it
+    private final Modules modules;
+    private final GlobalSlots slots;
+
+    CompiledScript(String name, List<Stmt> statements, Modules modules, GlobalSlots slots) {
+        this.name = name;
+        this.statements = Collections.unmodifiableList(statements);
+        this.modules = modules;
+        this.slots = slots;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    // Interpreters that run this script must number their globals the same way.
+    GlobalSlots slots() {
+        return slots;
+    }
+
+    public ExecutionContext execute(ExecutionContext context) {
+        return execute(context, Interpreter.create(context.out(), context.errors(), slots));
+    }
+
+    ExecutionContext execute(ExecutionContext context, Interpreter interpreter) {
+        interpreter.fuel = context.fuel();
+        interpreter.quota = context.quota();
+        for (Map.Entry<String, Object> global : context.globals().entrySet()) {
+            interpreter.define(global.getKey(), global.getValue());
+        }
+
+        run(interpreter);
+        context.capture(interpreter.globals());
+        return context;
+    }
+
+    // Runs on an interpreter whose globals the caller already set up.
+    void run(Interpreter interpreter) {
+        interpreter.script = name;
+        interpreter.modules = modules;
+        Phase phase = Phase.start(name, "execute");
+        try {
+            interpreter.interpreter(statements);
+        } finally {
+            interpreter.stop();
+            interpreter.refund();
+            phase.end();
+        }
+    }
+}
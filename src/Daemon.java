@@ -0,0 +1,243 @@
+package lox;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Daemon
+ *
+ * Keeps one warm JVM serving scripts over a Unix domain socket, so a run
+ * costs milliseconds instead of JVM startup, class loading and JIT warm-up.
+ * Each connection runs one script on its own virtual thread; compiled
+ * programs are kept in an LRU keyed by name and source.
+ *
+ * Both directions are frames of a tag byte, a big-endian int length and
+ * that many bytes. The client sends one RUN frame (an absolute script path)
+ * or SOURCE frame (the script itself); the daemon streams STDOUT and STDERR
+ * frames while the script runs and ends with an EXIT frame whose payload is
+ * the int status the command line would exit with: 0, 65 for compile
+ * errors, 66 for an unreadable script and 70 for runtime errors. A script
+ * whose client disconnects is stopped; --fuel and --quota bound the ones
+ * whose clients wait.
+ */
+class Daemon {
+    static final byte RUN = 'R';
+    static final byte SOURCE = 'S';
+    static final byte STDOUT = 'O';
+    static final byte STDERR = 'E';
+    static final byte EXIT = 'X';
+
+    private static final int CACHE_SIZE = 256;
+    private static final int MAX_REQUEST = 64 * 1024 * 1024;
+    private static final ThreadFactory CONNECTIONS = Thread.ofVirtual().name("lox-daemon-", 0).factory();
+    // 平台线程：脚本在死循环里不会让出载体线程，虚拟线程的看守可能永远轮不到
+    private static final ThreadFactory WATCHERS = Thread.ofPlatform().daemon().name("lox-watch-", 0).factory();
+
+    private final Path socket;
+    private final LoxEngine engine;
+    // step budget and allocation quota per script, -1 for none
+    private final long fuel;
+    private final long quota;
+    private final Map<String, CompiledScript> compiled = Collections.synchronizedMap(
+        new LinkedHashMap<String, CompiledScript>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        });
+
+    Daemon(Path socket, LoxEngine engine, long fuel, long quota) {
+        this.socket = socket;
+        this.engine = engine;
+        this.fuel = fuel;
+        this.quota = quota;
+    }
+
+    // Accepts connections until the process is stopped; removes the socket file on exit.
+    void serve() throws IOException {
+        if (Files.exists(socket)) {
+            if (alive(socket)) throw new IOException("A daemon is already listening on " + socket + ".");
+            Files.delete(socket);
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException error) {
+                    // nothing left to do on the way out
+                }
+            }));
+            System.err.println("Listening on " + socket + ".");
+
+            for (;;) {
+                SocketChannel connection = server.accept();
+                CONNECTIONS.newThread(() -> handle(connection)).start();
+            }
+        }
+    }
+
+    private static boolean alive(Path socket) {
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+            return true;
+        } catch (IOException error) {
+            return false;
+        }
+    }
+
+    private void handle(SocketChannel connection) {
+        try (connection) {
+            DataInputStream in = new DataInputStream(Channels.newInputStream(connection));
+            Frames frames = new Frames(new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(connection))));
+
+            byte tag = in.readByte();
+            int length = in.readInt();
+            if (length < 0 || length > MAX_REQUEST) return;
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+
+            int status;
+            AtomicBoolean done = new AtomicBoolean();
+            watch(connection, Thread.currentThread(), done);
+            try (PrintStream out = frames.stream(STDOUT); PrintStream err = frames.stream(STDERR)) {
+                try {
+                    status = run(tag, new String(payload, StandardCharsets.UTF_8), out, err);
+                } catch (ScriptInterrupted error) {
+                    // 客户端已经断开，没有人等这个退出码
+                    return;
+                } catch (Throwable error) {
+                    // 例如深递归的 StackOverflowError：客户端仍然要收到退出码
+                    err.println(error instanceof StackOverflowError ? "Stack overflow." : "Internal error: " + error);
+                    status = 70;
+                }
+            } finally {
+                done.set(true);
+            }
+            frames.exit(status);
+        } catch (IOException error) {
+            // 客户端提前断开，脚本的输出无处可去
+        }
+    }
+
+    /*
+     * The client sends nothing after its request, so a read that returns
+     * end of stream or fails means it has gone, e.g. killed with Ctrl-C.
+     * Interrupting the handler then stops the script at its next check,
+     * as a timeout would, instead of letting it run on for nobody.
+     */
+    private static void watch(SocketChannel connection, Thread handler, AtomicBoolean done) {
+        WATCHERS.newThread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocate(256);
+            try {
+                while (connection.read(buffer.clear()) >= 0) {
+                    // 多余的字节直接丢掉
+                }
+            } catch (IOException error) {
+                // 连接被关闭：要么客户端断开，要么请求已经处理完
+            }
+            if (!done.get()) handler.interrupt();
+        }).start();
+    }
+
+    private int run(byte tag, String request, PrintStream out, PrintStream err) {
+        String name = "<script>";
+        String source = request;
+        if (tag == RUN) {
+            name = request;
+            try {
+                source = new String(Files.readAllBytes(Paths.get(request)), StandardCharsets.UTF_8);
+            } catch (IOException error) {
+                err.println("Cannot read " + request + ": " + error.getMessage());
+                return 66;
+            }
+        } else if (tag != SOURCE) {
+            err.println("Unknown request.");
+            return 64;
+        }
+
+        String key = name + '\0' + source;
+        CompiledScript script = compiled.get(key);
+        if (script == null) {
+            Diagnostics diagnostics = new Diagnostics(err);
+            script = engine.compile(name, source, diagnostics);
+            if (diagnostics.hadError()) return 65;
+            compiled.put(key, script);
+        }
+
+        ExecutionContext context = new ExecutionContext(out, err);
+        if (fuel >= 0) context.fuel(fuel);
+        if (quota >= 0) context.allocationQuota(quota);
+        script.execute(context);
+        return context.failed() ? 70 : 0;
+    }
+
+    /*
+     * Writes frames from any thread; a script's coroutines may print
+     * concurrently. A lock rather than a monitor, so a virtual thread blocked
+     * on the socket releases its carrier.
+     */
+    private static class Frames {
+        private final DataOutputStream out;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        Frames(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void write(byte tag, byte[] bytes, int offset, int length) throws IOException {
+            lock.lock();
+            try {
+                out.writeByte(tag);
+                out.writeInt(length);
+                out.write(bytes, offset, length);
+                out.flush();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void exit(int status) throws IOException {
+            byte[] payload = {(byte)(status >>> 24), (byte)(status >>> 16), (byte)(status >>> 8), (byte)status};
+            write(EXIT, payload, 0, payload.length);
+        }
+
+        // A stream that sends what is flushed to it as frames of the given tag.
+        PrintStream stream(byte tag) {
+            OutputStream frames = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte)b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] bytes, int offset, int length) throws IOException {
+                    if (length > 0) Frames.this.write(tag, bytes, offset, length);
+                }
+            };
+            return new PrintStream(new BufferedOutputStream(frames, 8192), false, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package lox;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * DaemonClient
+ *
+ * The client side of Daemon's protocol: sends one script, copies the
+ * STDOUT and STDERR frames to this process's streams and returns the exit
+ * status the daemon reports. "-" as the script sends standard input.
+ */
+class DaemonClient {
+    static int run(Path socket, String script) throws IOException {
+        byte tag = Daemon.RUN;
+        byte[] payload;
+        if (script.equals("-")) {
+            tag = Daemon.SOURCE;
+            payload = System.in.readAllBytes();
+        } else {
+            // 守护进程的工作目录不同，发送绝对路径
+            payload = Paths.get(script).toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeByte(tag);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            for (;;) {
+                byte frame = in.readByte();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+
+                if (frame == Daemon.EXIT) return ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16)
+                    | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+                OutputStream target = frame == Daemon.STDERR ? System.err : System.out;
+                target.write(bytes);
+                target.flush();
+            }
+        }
+    }
+}
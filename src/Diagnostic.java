@@ -0,0 +1,41 @@
+package lox;
+
+/**
+ * Diagnostic
+ *
+ * One compile or runtime error reported while compiling or executing a
+ * script. toString() gives the same text the command line prints.
+ */
+public class Diagnostic {
+    public enum Kind { COMPILE, RUNTIME }
+
+    private final Kind kind;
+    private final int line;
+    private final String where;
+    private final String message;
+
+    Diagnostic(Kind kind, int line, String where, String message) {
+        this.kind = kind;
+        this.line = line;
+        this.where = where;
+        this.message = message;
+    }
+
+    public Kind kind() {
+        return kind;
+    }
+
+    public int line() {
+        return line;
+    }
+
+    public String message() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        if (kind == Kind.RUNTIME) return message + "\n[line " + line + "]";
+        return "[Line " + line + "] Error" + where + ": " + message;
+    }
+}
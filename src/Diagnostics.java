@@ -0,0 +1,86 @@
+package lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Diagnostics
+ *
+ * Collects the errors of one compilation or execution, optionally echoing
+ * each one to a stream as it is reported. The scanner, parser, resolver and
+ * interpreter report here instead of to process-wide state, so several
+ * scripts can be compiled and run at the same time.
+ */
+class Diagnostics {
+    private final List<Diagnostic> reported = new ArrayList<>();
+    // null when the diagnostics are only collected
+    private final PrintStream echo;
+    private boolean hadError = false;
+    private boolean hadRuntimeError = false;
+
+    Diagnostics() {
+        this(null);
+    }
+
+    Diagnostics(PrintStream echo) {
+        this.echo = echo;
+    }
+
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    void report(int line, String where, String message) {
+        add(new Diagnostic(Diagnostic.Kind.COMPILE, line, where, message));
+    }
+
+    void runtimeError(RuntimeError error) {
+        add(new Diagnostic(Diagnostic.Kind.RUNTIME, error.token.line, "", error.getMessage()));
+    }
+
+    // 并行解析时每个分块各自收集，按源码顺序合并
+    void addAll(Diagnostics other) {
+        for (Diagnostic diagnostic : other.all()) {
+            add(diagnostic);
+        }
+    }
+
+    private synchronized void add(Diagnostic diagnostic) {
+        reported.add(diagnostic);
+        if (diagnostic.kind() == Diagnostic.Kind.RUNTIME) {
+            hadRuntimeError = true;
+        } else {
+            hadError = true;
+        }
+        if (echo != null) echo.println(diagnostic);
+    }
+
+    synchronized boolean hadError() {
+        return hadError;
+    }
+
+    synchronized boolean hadRuntimeError() {
+        return hadRuntimeError;
+    }
+
+    synchronized List<Diagnostic> all() {
+        return Collections.unmodifiableList(new ArrayList<>(reported));
+    }
+
+    // Forgets earlier errors, e.g. between REPL lines.
+    synchronized void clear() {
+        reported.clear();
+        hadError = false;
+        hadRuntimeError = false;
+    }
+}
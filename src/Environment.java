@@ -8,14 +8,22 @@ import java.util.Map;
  */
 public class Environment {
     private Environment enclosing;
-    private final Map<String, Object> values = new HashMap();
+    private final Map<String, Object> values;
 
     Environment() {
-        enclosing = null;
+        this(null);
     }
 
     Environment(Environment enclosing) {
+        this(new HashMap<>(), enclosing);
+    }
+
+    // 变量直接存放在给定的 map 里，例如嵌入方传入的 Bindings
+    Environment(Map<String, Object> values, Environment enclosing) {
+        this.values = values;
         this.enclosing = enclosing;
+        if (Metrics.enabled) Metrics.environments.increment();
+        if (AllocationProfiler.active != null) AllocationProfiler.active.record(AllocationProfiler.Kind.ENVIRONMENT);
     }
 
     Object get(Token name) {
@@ -63,6 +71,10 @@ public class Environment {
         ancestor(distance).values.put(name.lexeme, value);
     }
 
+    Map<String, Object> values() {
+        return values;
+    }
+
     public Environment enclosing() {
         return enclosing;
     }
@@ -0,0 +1,152 @@
+package lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ExecutionContext
+ *
+ * What one execution of a CompiledScript sees and leaves behind: where print
+ * writes, the globals defined before the script starts, the globals after it
+ * finished and the runtime errors it reported. Use one context per
+ * execution.
+ */
+public class ExecutionContext {
+    private final PrintWriter out;
+    private final Diagnostics diagnostics;
+    private final Map<String, Object> globals = new LinkedHashMap<>();
+    private Budget fuel = null;
+    private Budget quota = null;
+
+    public ExecutionContext() {
+        this(System.out);
+    }
+
+    public ExecutionContext(PrintStream out) {
+        this(out, (PrintStream)null);
+    }
+
+    // err, when not null, also receives every diagnostic as it is reported
+    public ExecutionContext(PrintStream out, PrintStream err) {
+        this(new PrintWriter(out, true), new Diagnostics(err));
+    }
+
+    public ExecutionContext(Writer out) {
+        this(out instanceof PrintWriter ? (PrintWriter)out : new PrintWriter(out, true), new Diagnostics());
+    }
+
+    ExecutionContext(PrintStream out, Diagnostics diagnostics) {
+        this(new PrintWriter(out, true), diagnostics);
+    }
+
+    ExecutionContext(PrintWriter out, Diagnostics diagnostics) {
+        this.out = out;
+        this.diagnostics = diagnostics;
+    }
+
+    // Lox only has doubles, so other Java numbers are converted.
+    public ExecutionContext set(String name, Object value) {
+        if (value instanceof Number && !(value instanceof Double)) {
+            value = ((Number)value).doubleValue();
+        }
+        globals.put(name, value);
+        return this;
+    }
+
+    /*
+     * Limits the execution to the given number of steps, loop iterations and
+     * function calls counted together with those of the tasks it starts.
+     * Past the budget the script ends with an "Out of fuel" runtime error.
+     */
+    public ExecutionContext fuel(long steps) {
+        if (steps < 0) throw new IllegalArgumentException("Fuel must be >= 0.");
+        fuel = Budget.fuel(steps);
+        return this;
+    }
+
+    // Steps used so far, 0 when no budget was set.
+    public long fuelUsed() {
+        return fuel == null ? 0 : fuel.used();
+    }
+
+    /*
+     * Caps the estimated bytes of all the instances, fields, strings,
+     * closures and lists the execution allocates. This is a quota on
+     * allocation, not a limit on the live heap: nothing is given back when
+     * an object becomes garbage, so a long-running loop uses it up even if
+     * it keeps little alive. Past the quota the script ends with an
+     * "Allocation quota exceeded" runtime error.
+     */
+    public ExecutionContext allocationQuota(long bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("Allocation quota must be >= 0.");
+        quota = Budget.allocations(bytes);
+        return this;
+    }
+
+    // Estimated bytes allocated so far, 0 when no quota was set.
+    public long allocated() {
+        return quota == null ? 0 : quota.used();
+    }
+
+    /*
+     * Defines the globals saved by snapshot(), functions and classes
+     * included, so a script can use a library without running the code that
+     * built it.
+     */
+    public ExecutionContext restore(Path file) throws IOException {
+        globals.putAll(Snapshot.read(file));
+        return this;
+    }
+
+    /*
+     * Saves the globals left by the execution and everything they reach.
+     * Throws IllegalArgumentException when one of them reaches a channel,
+     * task or generator.
+     */
+    public void snapshot(Path file) throws IOException {
+        Snapshot.write(globals, file);
+    }
+
+    public Object get(String name) {
+        return globals.get(name);
+    }
+
+    public Map<String, Object> globals() {
+        return Collections.unmodifiableMap(globals);
+    }
+
+    public List<Diagnostic> diagnostics() {
+        return diagnostics.all();
+    }
+
+    public boolean failed() {
+        return diagnostics.hadError() || diagnostics.hadRuntimeError();
+    }
+
+    Budget fuel() {
+        return fuel;
+    }
+
+    Budget quota() {
+        return quota;
+    }
+
+    PrintWriter out() {
+        return out;
+    }
+
+    Diagnostics errors() {
+        return diagnostics;
+    }
+
+    void capture(Map<String, Object> values) {
+        globals.putAll(values);
+    }
+}
@@ -31,6 +31,10 @@ abstract class Expr {
 
     final Token name;
     final Expr value;
+    // scopes between the use and the declaration, set by the Resolver; -1 for globals
+    int depth = -1;
+    // GlobalTable slot when depth is -1
+    int slot = -1;
 
     }
 
@@ -135,6 +139,8 @@ abstract class Expr {
     }
 
     final Token name;
+    int depth = -1;
+    int slot = -1;
 
     }
 
@@ -197,6 +203,7 @@ abstract class Expr {
     }
 
     final Token keyword;
+    int depth = -1;
 
     }
 
@@ -212,6 +219,7 @@ abstract class Expr {
 
     final Token keyword;
     final Token method;
+    int depth = -1;
 
     }
 
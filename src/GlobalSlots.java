@@ -0,0 +1,31 @@
+package lox;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * GlobalSlots
+ *
+ * The slot numbers of global names for one LoxEngine. The Resolver stores
+ * a global's slot on its Variable and Assign nodes, and a GlobalTable
+ * created for the engine's programs indexes its cells by the same numbers,
+ * so the numbering only grows with the names the engine's own programs
+ * use. A program must run on a table of the engine that resolved it; a
+ * node without a slot (-1) is looked up by name.
+ */
+class GlobalSlots {
+    private final Map<String, Integer> slots = new ConcurrentHashMap<>();
+
+    int slot(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) return slot;
+
+        synchronized (slots) {
+            return slots.computeIfAbsent(name, key -> slots.size());
+        }
+    }
+
+    int size() {
+        return slots.size();
+    }
+}
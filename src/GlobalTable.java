@@ -0,0 +1,187 @@
+package lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * GlobalTable
+ *
+ * The global variables of an interpreter and of every interpreter forked
+ * from it. The Resolver gives each global name a slot from the engine's
+ * GlobalSlots, so reading a global is an array read plus a volatile read
+ * of its cell, with no lock and no walk up the environment chain. Writes
+ * are volatile writes to the cell; only creating a name's cell, once per
+ * table, takes the table's lock. The table also remembers which globals
+ * the script itself defined or assigned, for hosts that copy them back.
+ * Importing a module links the module's cells into the importer's table,
+ * so both read and assign the same variables; a declaration of the same
+ * name in the importer replaces the link with a cell of its own.
+ */
+class GlobalTable {
+    private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(Cell[].class);
+    // value of a cell whose global has not been defined yet
+    private static final Object UNDEFINED = new Object();
+
+    private static class Cell {
+        // the table that created it; others only link to it
+        final GlobalTable owner;
+        final String name;
+        // the native function of the same name, which a global shadows
+        final Object builtin;
+        volatile Object value = UNDEFINED;
+        // set once the script defines or assigns it; guarded by the owner's lock
+        boolean written = false;
+
+        Cell(GlobalTable owner, String name, Object builtin) {
+            this.owner = owner;
+            this.name = name;
+            this.builtin = builtin;
+        }
+    }
+
+    private final GlobalSlots slots;
+    private final Map<String, Object> natives;
+    // may be null; read, never written, for names no global defines, e.g. JSR-223 global scope
+    private final Map<String, Object> fallback;
+    private volatile Cell[] cells;
+    // the cells the script defined, assigned or imported, by name in that order
+    private final Map<String, Cell> written = new LinkedHashMap<>();
+
+    GlobalTable(GlobalSlots slots, Map<String, Object> natives, Map<String, Object> fallback) {
+        this.slots = slots;
+        this.natives = natives;
+        this.fallback = fallback;
+        this.cells = new Cell[Math.max(16, slots.size())];
+    }
+
+    // A host value as Lox sees it: Lox only has doubles.
+    static Object lox(Object value) {
+        if (value instanceof Number && !(value instanceof Double)) return ((Number)value).doubleValue();
+        return value;
+    }
+
+    private Cell cell(int slot, String name) {
+        if (slot < 0) slot = slots.slot(name);
+        Cell[] cells = this.cells;
+        if (slot < cells.length) {
+            Cell cell = (Cell)CELLS.getAcquire(cells, slot);
+            if (cell != null) return cell;
+        }
+        return create(slot, name);
+    }
+
+    private synchronized Cell create(int slot, String name) {
+        Cell cell = slot < cells.length ? cells[slot] : null;
+        if (cell == null) cell = put(slot, new Cell(this, name, natives.getOrDefault(name, UNDEFINED)));
+        return cell;
+    }
+
+    // Called with the lock held.
+    private Cell put(int slot, Cell cell) {
+        Cell[] cells = this.cells;
+        if (slot >= cells.length) {
+            cells = Arrays.copyOf(cells, Math.max(cells.length * 2, slot + 1));
+        }
+        CELLS.setRelease(cells, slot, cell);
+        this.cells = cells;
+        return cell;
+    }
+
+    // The name's cell in this table, replacing a link to a module's cell.
+    private Cell own(String name) {
+        Cell cell = cell(-1, name);
+        return cell.owner == this ? cell : unlink(cell);
+    }
+
+    private synchronized Cell unlink(Cell linked) {
+        int slot = slots.slot(linked.name);
+        Cell cell = cells[slot];
+        if (cell.owner != this) cell = put(slot, new Cell(this, linked.name, linked.builtin));
+        return cell;
+    }
+
+    Object get(Token name, int slot) {
+        Cell cell = cell(slot, name.lexeme);
+        Object value = cell.value;
+        if (value != UNDEFINED) return value;
+
+        if (fallback != null && fallback.containsKey(name.lexeme)) return lox(fallback.get(name.lexeme));
+        if (cell.builtin != UNDEFINED) return cell.builtin;
+
+        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'");
+    }
+
+    // A global the host defines before the script runs.
+    void define(String name, Object value) {
+        own(name).value = value;
+    }
+
+    // A global the script defines.
+    void declare(String name, Object value) {
+        Cell cell = own(name);
+        cell.value = value;
+        if (!cell.written) written(cell);
+    }
+
+    // Imports what a module's script defined, assigned or imported itself.
+    void link(GlobalTable module) {
+        List<Cell> exports = module.exports();
+        synchronized (this) {
+            for (Cell cell : exports) {
+                put(slots.slot(cell.name), cell);
+                written.put(cell.name, cell);
+            }
+        }
+    }
+
+    private synchronized List<Cell> exports() {
+        return new ArrayList<>(written.values());
+    }
+
+    void assign(Token name, int slot, Object value) {
+        Cell cell = cell(slot, name.lexeme);
+        // 全局变量一旦定义就不会再变回未定义，检查后直接写入不会丢失
+        // 回退表属于宿主，给其中的名字赋值只会在本表里遮住它
+        if (cell.value != UNDEFINED
+                || (fallback != null && fallback.containsKey(name.lexeme))
+                || cell.builtin != UNDEFINED) {
+            cell.value = value;
+            if (!cell.written) written(cell);
+        } else {
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'");
+        }
+    }
+
+    // Only called for cells of this table: imported ones were written by their module.
+    private synchronized void written(Cell cell) {
+        cell.written = true;
+        written.put(cell.name, cell);
+    }
+
+    // The globals the script defined, assigned or imported, by name.
+    synchronized Map<String, Object> written() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (Cell cell : written.values()) {
+            values.put(cell.name, cell.value);
+        }
+        return values;
+    }
+
+    // The defined globals by name, in slot order.
+    Map<String, Object> values() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        Cell[] cells = this.cells;
+        for (int slot = 0; slot < cells.length; slot++) {
+            Cell cell = (Cell)CELLS.getAcquire(cells, slot);
+            if (cell == null) continue;
+            Object value = cell.value;
+            if (value != UNDEFINED) values.put(cell.name, value);
+        }
+        return values;
+    }
+}
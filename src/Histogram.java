@@ -0,0 +1,49 @@
+package lox;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram
+ *
+ * Latency histogram with power-of-two microsecond buckets, built from
+ * LongAdders so concurrent recorders do not contend.
+ */
+class Histogram {
+    // bucket i counts durations up to 2^i microseconds, the last one everything above
+    static final int BUCKETS = 36;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long nanos) {
+        // 向上取整：1.5 微秒要落在 2 微秒的桶里，而不是 1 微秒的
+        long micros = (nanos + 999) / 1000;
+        int index = micros <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(micros - 1);
+        buckets[Math.min(index, BUCKETS - 1)].increment();
+        count.increment();
+        sumNanos.add(nanos);
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    long sumNanos() {
+        return sumNanos.sum();
+    }
+
+    long bucket(int index) {
+        return buckets[index].sum();
+    }
+
+    static double upperBoundSeconds(int index) {
+        return (1L << index) / 1e6;
+    }
+}
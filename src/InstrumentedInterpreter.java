@@ -0,0 +1,246 @@
+package lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import jdk.jfr.EventType;
+
+/**
+ * InstrumentedInterpreter
+ *
+ * The Interpreter used while anything watches the script: metrics, the
+ * sampling or allocation profiler, a JFR recording of Lox events, or
+ * hot-spot reporting, which also counts executions and time for every Stmt
+ * and Expr node. All those hooks live here, so the plain Interpreter's
+ * execute, evaluate and calls carry no instrumentation checks and keep
+ * their small frames. Whether to instrument is decided when a script's
+ * interpreter is created; its tasks and generators fork from it and are
+ * instrumented alike. Environment and LoxFunction.bind, which have no
+ * interpreter at hand, still count their allocations themselves.
+ */
+class InstrumentedInterpreter extends Interpreter {
+    private static final EventType CALLS = EventType.getEventType(LoxEvents.Call.class);
+    private static final EventType INSTANTIATIONS = EventType.getEventType(LoxEvents.Instantiation.class);
+    private static final EventType ERRORS = EventType.getEventType(LoxEvents.ScriptError.class);
+
+    private final boolean hotspots;
+    // one node table per interpreter of the script, each written by its own thread
+    private final List<Map<Object, NodeStats>> tables;
+    private final Map<Object, NodeStats> nodes = new IdentityHashMap<>();
+    // time spent in children of the nodes currently on the stack
+    private long[] childNanos = new long[256];
+    private int depth = 0;
+
+    InstrumentedInterpreter(PrintWriter out, Diagnostics diagnostics, GlobalSlots slots, boolean hotspots) {
+        this(out, diagnostics, slots, new HashMap<>(), null, hotspots);
+    }
+
+    InstrumentedInterpreter(PrintWriter out, Diagnostics diagnostics, GlobalSlots slots, Map<String, Object> globals,
+                            Map<String, Object> fallback, boolean hotspots) {
+        super(out, diagnostics, slots, globals, fallback);
+        this.hotspots = hotspots;
+        this.tables = new CopyOnWriteArrayList<>();
+        tables.add(nodes);
+    }
+
+    private InstrumentedInterpreter(InstrumentedInterpreter parent) {
+        super(parent);
+        this.hotspots = parent.hotspots;
+        this.tables = parent.tables;
+        tables.add(nodes);
+    }
+
+    static boolean wanted() {
+        return Metrics.enabled || Profiler.active != null || AllocationProfiler.active != null
+            || CALLS.isEnabled() || INSTANTIATIONS.isEnabled() || ERRORS.isEnabled();
+    }
+
+    static class NodeStats {
+        final int line;
+        final String kind;
+        long count;
+        long totalNanos;
+        long selfNanos;
+
+        NodeStats(int line, String kind) {
+            this.line = line;
+            this.kind = kind;
+        }
+    }
+
+    @Override
+    Interpreter fork() {
+        return new InstrumentedInterpreter(this);
+    }
+
+    @Override
+    Object evaluate(Expr expr) {
+        if (!hotspots) return allocated(expr, expr.accept(this));
+
+        long start = enter();
+        try {
+            return allocated(expr, expr.accept(this));
+        } finally {
+            exit(expr, start);
+        }
+    }
+
+    // 只有运算符的结果是新分配的数字或字符串
+    private static Object allocated(Expr expr, Object value) {
+        AllocationProfiler allocations = AllocationProfiler.active;
+        if (allocations != null && (expr instanceof Expr.Binary || expr instanceof Expr.Unary)) {
+            allocations.value(value);
+        }
+        return value;
+    }
+
+    @Override
+    void execute(Stmt stmt) {
+        if (Metrics.enabled) Metrics.statements.increment();
+        AllocationProfiler allocations = AllocationProfiler.active;
+        int previous = allocations != null ? allocations.enter(script, stmt) : 0;
+        long start = hotspots ? enter() : 0;
+        try {
+            stmt.accept(this);
+        } finally {
+            if (hotspots) exit(stmt, start);
+            if (allocations != null) allocations.exit(script, previous);
+        }
+    }
+
+    @Override
+    public Object visitCallExpr(Expr.Call expr) {
+        List<Object> arguments = new ArrayList<>();
+        return call(callee(expr, arguments), arguments);
+    }
+
+    @Override
+    Object call(LoxCallable callee, List<Object> arguments) {
+        if (callee instanceof LoxClass) {
+            instantiated((LoxClass)callee);
+            return super.call(callee, arguments);
+        }
+        if (!(callee instanceof LoxFunction)) return super.call(callee, arguments);
+
+        Token name = ((LoxFunction)callee).declaration().name;
+        if (Metrics.enabled) Metrics.calls.increment();
+        LoxEvents.Call event = new LoxEvents.Call();
+        event.begin();
+        int line = callLine;
+        Profiler profiler = Profiler.active;
+        if (profiler != null) profiler.enter(name);
+        try {
+            return super.call(callee, arguments);
+        } finally {
+            if (profiler != null) profiler.exit();
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.script = script;
+                event.function = name.lexeme;
+                event.line = line;
+                event.commit();
+            }
+        }
+    }
+
+    private void instantiated(LoxClass klass) {
+        if (Metrics.enabled) Metrics.instances.increment();
+        LoxEvents.Instantiation event = new LoxEvents.Instantiation();
+        if (event.shouldCommit()) {
+            event.script = script;
+            event.className = klass.name;
+            event.line = callLine;
+            event.commit();
+        }
+    }
+
+    @Override
+    void allocate(AllocationProfiler.Kind kind, long bytes, Object node) {
+        super.allocate(kind, bytes, node);
+        if (AllocationProfiler.active != null) AllocationProfiler.active.record(kind, bytes);
+    }
+
+    @Override
+    void report(RuntimeError error) {
+        LoxEvents.ScriptError event = new LoxEvents.ScriptError();
+        if (event.shouldCommit()) {
+            event.script = script;
+            event.message = error.getMessage();
+            event.line = error.token.line;
+            event.commit();
+        }
+        if (Metrics.enabled) Metrics.runtimeErrors.increment();
+        super.report(error);
+    }
+
+    private long enter() {
+        if (depth == childNanos.length) {
+            long[] grown = new long[childNanos.length * 2];
+            System.arraycopy(childNanos, 0, grown, 0, depth);
+            childNanos = grown;
+        }
+        childNanos[depth++] = 0;
+        return System.nanoTime();
+    }
+
+    private void exit(Object node, long start) {
+        long elapsed = System.nanoTime() - start;
+        long children = childNanos[--depth];
+        if (depth > 0) childNanos[depth - 1] += elapsed;
+
+        NodeStats stats = nodes.get(node);
+        if (stats == null) {
+            stats = new NodeStats(Lines.of(node), node.getClass().getSimpleName());
+            nodes.put(node, stats);
+        }
+        stats.count++;
+        stats.totalNanos += elapsed;
+        stats.selfNanos += elapsed - children;
+    }
+
+    // Folds the per-node numbers of all its interpreters into one row per line and node kind, by self time.
+    List<NodeStats> report() {
+        Map<String, NodeStats> rows = new HashMap<>();
+        for (Map<Object, NodeStats> table : tables) {
+            for (NodeStats stats : table.values()) {
+                NodeStats row = rows.computeIfAbsent(stats.line + " " + stats.kind,
+                    key -> new NodeStats(stats.line, stats.kind));
+                row.count += stats.count;
+                row.totalNanos += stats.totalNanos;
+                row.selfNanos += stats.selfNanos;
+            }
+        }
+
+        List<NodeStats> ranked = new ArrayList<>(rows.values());
+        ranked.sort((a, b) -> Long.compare(b.selfNanos, a.selfNanos));
+        return ranked;
+    }
+
+    static void print(List<NodeStats> ranked, PrintStream out, int limit) {
+        out.printf("%6s  %-12s %12s %12s %12s%n", "line", "node", "count", "self ms", "total ms");
+        for (int i = 0; i < ranked.size() && i < limit; i++) {
+            NodeStats row = ranked.get(i);
+            out.printf("%6d  %-12s %12d %12.3f %12.3f%n", row.line, row.kind, row.count,
+                row.selfNanos / 1e6, row.totalNanos / 1e6);
+        }
+    }
+
+    static void write(List<NodeStats> ranked, Path out) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out))) {
+            writer.println("line,node,count,self_ns,total_ns");
+            for (NodeStats row : ranked) {
+                writer.println(row.line + "," + row.kind + "," + row.count + "," + row.selfNanos + "," + row.totalNanos);
+            }
+        }
+    }
+}
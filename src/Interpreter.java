@@ -1,30 +1,126 @@
 package lox;
 
+import java.io.PrintWriter;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 //import jdk.nashorn.internal.parser.TokenType;
 
 /**
  * Interpreter
  */
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    private Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap();
-
-    private Object evaluate(Expr expr) {
+    // 原生函数没有状态，所有解释器共用一份
+    static final Map<String, Object> NATIVES = natives();
+
+    // the running function's, which differ from the script's in functions of a module
+    private GlobalTable globals;
+    // top-level code runs here; what it declares goes to globals
+    private final Environment root;
+    private Environment environment;
+    private final PrintWriter out;
+    final Diagnostics diagnostics;
+    // 同一个脚本的解释器和它的并行任务共享，任何一个被中断，其余的也停下
+    private final AtomicBoolean stopped;
+    // threads of the script blocked on a channel or import; stopping the script interrupts them
+    private final Set<Thread> blocked;
+    // coroutines started with go that have not ended; stop() waits for them
+    private final Set<Thread> coroutines;
+    // budgets shared with forked tasks, null when unlimited
+    Budget fuel = null;
+    Budget quota = null;
+    // what this interpreter has left of the chunks it took from them
+    private long fuelLeft = 0;
+    private long quotaLeft = 0;
+    // 脚本名和最近一次调用所在的行，供 JFR 事件使用
+    String script = "<script>";
+    int callLine = 0;
+    // set on the interpreter that runs a generator's body
+    LoxGenerator.Frame generator = null;
+    // where import finds and caches modules; set from the engine that compiled the script
+    Modules modules = null;
+
+    Object evaluate(Expr expr) {
         return expr.accept(this);
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    void define(String name, Object value) {
+        globals.define(name, value);
+    }
+
+    Map<String, Object> globals() {
+        return globals.values();
+    }
+
+    GlobalTable globalTable() {
+        return globals;
+    }
+
+    // The globals the script defined or assigned, not those it was started with.
+    Map<String, Object> writtenGlobals() {
+        return globals.written();
+    }
+
+    PrintWriter out() {
+        return out;
+    }
+
+    private void declare(Token name, Object value) {
+        if (environment == root) {
+            globals.declare(name.lexeme, value);
+        } else {
+            environment.define(name.lexeme, value);
+        }
+    }
+
+    static Interpreter create(PrintWriter out, Diagnostics diagnostics, GlobalSlots slots) {
+        return create(out, diagnostics, slots, new HashMap<>(), null);
     }
 
-    Interpreter() {
+    // An InstrumentedInterpreter while metrics, a profiler or a JFR recording of Lox events is on.
+    static Interpreter create(PrintWriter out, Diagnostics diagnostics, GlobalSlots slots,
+                              Map<String, Object> globals, Map<String, Object> fallback) {
+        if (InstrumentedInterpreter.wanted()) {
+            return new InstrumentedInterpreter(out, diagnostics, slots, globals, fallback, false);
+        }
+        return new Interpreter(out, diagnostics, slots, globals, fallback);
+    }
+
+    // Runs programs resolved with slots.
+    Interpreter(PrintWriter out, Diagnostics diagnostics, GlobalSlots slots) {
+        this(out, diagnostics, slots, new HashMap<>(), null);
+    }
+
+    /*
+     * The script starts with the given globals defined; names no global
+     * defines are looked up in fallback (may be null) and then in the native
+     * functions.
+     */
+    Interpreter(PrintWriter out, Diagnostics diagnostics, GlobalSlots slots,
+                Map<String, Object> globals, Map<String, Object> fallback) {
+        this.out = out;
+        this.diagnostics = diagnostics;
+
+        this.globals = new GlobalTable(slots, NATIVES, fallback);
+        this.root = new Environment();
+        this.environment = this.root;
+        this.stopped = new AtomicBoolean();
+        this.blocked = ConcurrentHashMap.newKeySet();
+        this.coroutines = ConcurrentHashMap.newKeySet();
+
+        for (Map.Entry<String, Object> global : globals.entrySet()) {
+            define(global.getKey(), global.getValue());
+        }
+    }
 
-        globals.define("clock", new LoxCallable() {
+    private static Map<String, Object> natives() {
+        Environment natives = new Environment();
+        natives.define("clock", new LoxCallable() {
             @Override
             public int arity() { return 0; }
 
@@ -36,6 +132,32 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             @Override
             public String toString() { return "<native fn>"; }
         });
+        LoxList.define(natives);
+        Tasks.define(natives);
+        LoxChannel.define(natives);
+        LoxGenerator.define(natives);
+        return Collections.unmodifiableMap(natives.values());
+    }
+
+    // 给 spawn/parallelMap 的任务用：共享全局变量、输出和诊断，调用状态各自独立
+    Interpreter(Interpreter parent) {
+        this.out = parent.out;
+        this.diagnostics = parent.diagnostics;
+        this.globals = parent.globals;
+        this.root = parent.root;
+        this.environment = parent.root;
+        this.script = parent.script;
+        this.stopped = parent.stopped;
+        this.blocked = parent.blocked;
+        this.coroutines = parent.coroutines;
+        this.fuel = parent.fuel;
+        this.quota = parent.quota;
+        this.modules = parent.modules;
+    }
+
+    // An interpreter for a task or generator of this script.
+    Interpreter fork() {
+        return new Interpreter(this);
     }
 
     void interpreter(List<Stmt> statements) {
@@ -44,10 +166,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 execute(statement);
             }
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            report(error);
         }
     }
 
+    void report(RuntimeError error) {
+        diagnostics.runtimeError(error);
+    }
+
     @Override
     public Void visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
@@ -57,7 +183,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        out.println(stringify(value));
         return null;
     }
 
@@ -68,19 +194,28 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
+        declare(stmt.name, value);
         return null;
     }
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.condition))) {
+            checkInterrupted();
+            burn(stmt);
             execute(stmt.body);
         }
         
         return null;
     }
 
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        if (modules == null) throw new RuntimeError(stmt.keyword, "Can only import in a script compiled by a LoxEngine.");
+        globals.link(modules.load(this, stmt.keyword, (String)stmt.path.literal));
+        return null;
+    }
+
     @Override
     public Void visitClassStmt(Stmt.Class stmt) {
         Object superclass = null;
@@ -91,7 +226,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         }
 
-        environment.define(stmt.name.lexeme, null);
+        declare(stmt.name, null);
 
         if (stmt.superclass != null) {
             environment = new Environment(environment);
@@ -100,7 +235,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
         Map<String, LoxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
-            LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
+            LoxFunction function = new LoxFunction(method, environment, globals, method.name.lexeme.equals("init"));
+            allocate(AllocationProfiler.Kind.FUNCTION, AllocationProfiler.Kind.FUNCTION.bytes, method);
             methods.put(method.name.lexeme, function);
         }
 
@@ -110,7 +246,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             environment = environment.enclosing();
         }
 
-        environment.assign(stmt.name, klass);
+        declare(stmt.name, klass);
         return null;
     }
 
@@ -133,8 +269,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
+        LoxFunction function = new LoxFunction(stmt, environment, globals, false);
+        allocate(AllocationProfiler.Kind.FUNCTION, AllocationProfiler.Kind.FUNCTION.bytes, stmt);
+        declare(stmt.name, function);
         return null;
     }
 
@@ -146,16 +283,25 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         throw new Return(value);
     }
 
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        Object value = null;
+        if (stmt.value != null) value = evaluate(stmt.value);
+
+        if (generator == null) throw new RuntimeError(stmt.keyword, "Can only yield inside a generator.");
+        generator.yield(value);
+        return null;
+    }
+
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
 
         // environment.assign(expr.name, value);
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.depth != -1) {
+            environment.assignAt(expr.depth, expr.name, value);
         } else {
-            globals.assign(expr.name, value);
+            globals.assign(expr.name, expr.slot, value);
 
         }
 
@@ -189,13 +335,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         Object value = evaluate(expr.value);
-        ((LoxInstance)object).set(expr.name, value);
+        if (((LoxInstance)object).set(expr.name, value)) {
+            allocate(AllocationProfiler.Kind.FIELD, AllocationProfiler.Kind.FIELD.bytes, expr.name);
+        }
         return value;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
+        int distance = expr.depth;
         LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
         LoxInstance object = (LoxInstance)environment.getAt(distance - 1, "this");
         LoxFunction method = superclass.findMethod(object, expr.method.lexeme);
@@ -209,7 +357,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.depth, -1);
     }
 
     @Override
@@ -245,14 +393,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.depth, expr.slot);
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
+        List<Object> arguments = new ArrayList<>();
+        return callee(expr, arguments).call(this, arguments);
+    }
+
+    // Evaluates the callee and, into arguments, the arguments of expr.
+    LoxCallable callee(Expr.Call expr, List<Object> arguments) {
         Object callee = evaluate(expr.callee);
         
-        List<Object> arguments = new ArrayList<>();
         for (Expr argument : expr.arguments) {
             arguments.add(evaluate(argument));
         }
@@ -266,6 +419,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             throw new RuntimeError(expr.paren, "Expect " + function.arity() + " arguments but got " + arguments.size() + ".");
         }
 
+        callLine = expr.paren.line;
+        return function;
+    }
+
+    // Calls made on the script's behalf by classes and natives; visitCallExpr calls directly.
+    Object call(LoxCallable function, List<Object> arguments) {
         return function.call(this, arguments);
     }
 
@@ -294,11 +453,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 }
 
                 if (leftValue instanceof String && rightValue instanceof String) {
-                    return (String)leftValue + (String)rightValue;
+                    return concatenated(expr, (String)leftValue + (String)rightValue);
                 }
 
                 if (checkAddNumberAndString(expr.operator, leftValue, rightValue)) {
-                    return stringify(leftValue) + stringify(rightValue);
+                    return concatenated(expr, stringify(leftValue) + stringify(rightValue));
                 }
 
                 throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
@@ -345,7 +504,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return a.equals(b);
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) return "nil";
 
         if (object instanceof Double) {
@@ -387,10 +546,101 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
-    private void execute(Stmt stmt) {
+    void execute(Stmt stmt) {
         stmt.accept(this);
     }
 
+    // 在循环回边和函数入口检查，超时或被取消的任务在这里停下
+    void checkInterrupted() {
+        if (stopped.get() || Thread.currentThread().isInterrupted()) {
+            // 第一个发现停止的线程唤醒其余阻塞在 channel 上的线程
+            if (!stopped.getAndSet(true)) {
+                for (Thread thread : blocked) {
+                    if (thread != Thread.currentThread()) thread.interrupt();
+                }
+            }
+            throw new ScriptInterrupted();
+        }
+    }
+
+    /*
+     * Marks the current thread as blocked, or no longer, in a wait that only
+     * an interrupt ends early. Check checkInterrupted() after marking and
+     * before waiting, so a stop in between is not missed.
+     */
+    void blocked(boolean blocked) {
+        if (blocked) {
+            this.blocked.add(Thread.currentThread());
+        } else {
+            this.blocked.remove(Thread.currentThread());
+        }
+    }
+
+    // Registers a coroutine before it starts; it unregisters itself when it ends.
+    void coroutine(Thread thread, boolean running) {
+        if (running) {
+            coroutines.add(thread);
+        } else {
+            coroutines.remove(thread);
+        }
+    }
+
+    /*
+     * Ends what the script left running once its top level is done: its
+     * tasks and coroutines stop at their next loop iteration or call, or
+     * are woken from channel waits, and the coroutines are waited for, so
+     * their errors are reported before the script's result.
+     */
+    void stop() {
+        stopped.set(true);
+        for (Thread thread : blocked) {
+            if (thread != Thread.currentThread()) thread.interrupt();
+        }
+
+        // 脚本可能正是因为被中断才结束的，等待协程时先清掉中断标志
+        boolean interrupted = Thread.interrupted();
+        while (!coroutines.isEmpty()) {
+            for (Thread thread : coroutines) {
+                try {
+                    thread.join();
+                } catch (InterruptedException error) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private String concatenated(Expr.Binary expr, String value) {
+        if (quota != null) charge(AllocationProfiler.stringBytes(value), expr.operator);
+        return value;
+    }
+
+    // One step per loop iteration and function call; node is where an exhausted budget is reported.
+    void burn(Object node) {
+        if (fuel != null && --fuelLeft < 0) fuelLeft = fuel.take(fuelLeft, node);
+    }
+
+    // Charges the allocation quota; node as for burn, null for the calling line.
+    void charge(long bytes, Object node) {
+        if (quota != null && (quotaLeft -= bytes) < 0) {
+            quotaLeft = quota.take(quotaLeft, node != null ? node : new Token(TokenType.IDENTIFIER, "", null, callLine));
+        }
+    }
+
+    // A new object the script can keep; InstrumentedInterpreter also records it by kind.
+    void allocate(AllocationProfiler.Kind kind, long bytes, Object node) {
+        charge(bytes, node);
+    }
+
+    // Gives the rest of the current chunks back once this interpreter is done.
+    void refund() {
+        if (fuel != null) fuel.refund(fuelLeft);
+        if (quota != null) quota.refund(quotaLeft);
+        fuelLeft = 0;
+        quotaLeft = 0;
+    }
+
     void executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment;
         // 保存当前环境，执行完块后恢复环境
@@ -405,13 +655,29 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
+    // A function's body: its globals, when not null, are those of the script that declared it.
+    void executeBlock(List<Stmt> statements, Environment environment, GlobalTable globals) {
+        Environment previous = this.environment;
+        GlobalTable previousGlobals = this.globals;
+        try {
+            this.environment = environment;
+            if (globals != null) this.globals = globals;
+
+            for (Stmt statement : statements) {
+                execute(statement);
+            }
+        } finally {
+            this.environment = previous;
+            this.globals = previousGlobals;
+        }
+    }
+
+    private Object lookUpVariable(Token name, int depth, int slot) {
         Object value = null;
-        if (distance != null) {
-            value = environment.getAt(distance, name.lexeme);
+        if (depth != -1) {
+            value = environment.getAt(depth, name.lexeme);
         } else {
-            value = environment.get(name);
+            value = globals.get(name, slot);
         }
 
         if (value == null) throw new RuntimeError(name, name.lexeme + "  uninitialized");
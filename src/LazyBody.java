@@ -0,0 +1,53 @@
+package lox;
+
+import java.util.List;
+
+/**
+ * LazyBody
+ *
+ * The token range of a function body that is parsed and resolved on the
+ * function's first call instead of at load time.
+ */
+class LazyBody {
+    private final List<Token> tokens;
+    // first token after the body's '{' and the index of its closing '}'
+    private final int start;
+    private final int end;
+    private Resolver.Context context;
+
+    LazyBody(List<Token> tokens, int start, int end) {
+        this.tokens = tokens;
+        this.start = start;
+        this.end = end;
+    }
+
+    void defer(Resolver.Context context) {
+        this.context = context;
+    }
+
+    List<Token> tokens() {
+        return tokens.subList(start, end + 1);
+    }
+
+    Resolver.Context context() {
+        return context;
+    }
+
+    synchronized List<Stmt> materialize(Stmt.Function declaration) {
+        if (declaration.body != null) return declaration.body;
+
+        Diagnostics diagnostics = new Diagnostics();
+        List<Stmt> body = new Parser(tokens, start, diagnostics).functionBody();
+        if (!diagnostics.hadError()) {
+            new Resolver(diagnostics, context.slots()).resolveDeferred(declaration, body, context);
+        }
+        if (diagnostics.hadError()) {
+            // 脚本已经在运行，语法错误只能作为运行时错误报告
+            throw new RuntimeError(declaration.name,
+                "Invalid body in function '" + declaration.name.lexeme + "': " + diagnostics.all().get(0));
+        }
+
+        declaration.body = body;
+        return body;
+    }
+}
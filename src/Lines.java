@@ -0,0 +1,153 @@
+package lox;
+
+/**
+ * Lines
+ *
+ * Finds the source line of a Stmt or Expr from the first token it or one of
+ * its children carries, -1 when there is none (e.g. a lone literal).
+ */
+class Lines implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+    private static final Lines INSTANCE = new Lines();
+
+    static int of(Object node) {
+        if (node instanceof Expr) return INSTANCE.line((Expr)node);
+        if (node instanceof Stmt) return INSTANCE.line((Stmt)node);
+        return -1;
+    }
+
+    private int line(Expr expr) {
+        return expr == null ? -1 : expr.accept(this);
+    }
+
+    private int line(Stmt stmt) {
+        return stmt == null ? -1 : stmt.accept(this);
+    }
+
+    private int first(int a, int b) {
+        return a != -1 ? a : b;
+    }
+
+    @Override
+    public Integer visitBlockStmt(Stmt.Block stmt) {
+        for (Stmt statement : stmt.statements) {
+            int line = line(statement);
+            if (line != -1) return line;
+        }
+        return -1;
+    }
+
+    @Override
+    public Integer visitExpressionStmt(Stmt.Expression stmt) {
+        return line(stmt.expression);
+    }
+
+    @Override
+    public Integer visitPrintStmt(Stmt.Print stmt) {
+        return line(stmt.expression);
+    }
+
+    @Override
+    public Integer visitVarStmt(Stmt.Var stmt) {
+        return stmt.name.line;
+    }
+
+    @Override
+    public Integer visitIfStmt(Stmt.If stmt) {
+        return first(line(stmt.condition), line(stmt.thenBranch));
+    }
+
+    @Override
+    public Integer visitWhileStmt(Stmt.While stmt) {
+        return stmt.keyword.line;
+    }
+
+    @Override
+    public Integer visitFunctionStmt(Stmt.Function stmt) {
+        return stmt.name.line;
+    }
+
+    @Override
+    public Integer visitReturnStmt(Stmt.Return stmt) {
+        return stmt.keyword.line;
+    }
+
+    @Override
+    public Integer visitYieldStmt(Stmt.Yield stmt) {
+        return stmt.keyword.line;
+    }
+
+    @Override
+    public Integer visitClassStmt(Stmt.Class stmt) {
+        return stmt.name.line;
+    }
+
+    @Override
+    public Integer visitImportStmt(Stmt.Import stmt) {
+        return stmt.keyword.line;
+    }
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr) {
+        return expr.name.line;
+    }
+
+    @Override
+    public Integer visitTernaryExpr(Expr.Ternary expr) {
+        return first(line(expr.condition), line(expr.leftExpr));
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr) {
+        return expr.operator.line;
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr) {
+        return line(expr.expression);
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr) {
+        return -1;
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr) {
+        return expr.operator.line;
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr) {
+        return expr.operator.line;
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr) {
+        return expr.name.line;
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr) {
+        return expr.paren.line;
+    }
+
+    @Override
+    public Integer visitGetExpr(Expr.Get expr) {
+        return expr.name.line;
+    }
+
+    @Override
+    public Integer visitSetExpr(Expr.Set expr) {
+        return expr.name.line;
+    }
+
+    @Override
+    public Integer visitThisExpr(Expr.This expr) {
+        return expr.keyword.line;
+    }
+
+    @Override
+    public Integer visitSuperExpr(Expr.Super expr) {
+        return expr.keyword.line;
+    }
+}
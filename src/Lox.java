@@ -6,8 +6,12 @@ import java.io.InputStreamReader;
 import java.io.BufferedInputStream;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
 
 
 /**
@@ -15,24 +19,148 @@ import java.util.List;
  */
 public class Lox {
     //private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    static volatile boolean hadError = false;
+    static volatile boolean hadRuntimeError = false;
+    // a snapshot could not be read or written: exit 74, like other I/O errors
+    static volatile boolean hadIoError = false;
+    static boolean parallelParse = false;
+    static boolean lazyParse = false;
+    private static ProgramCache cache = null;
+    private static Path profileOutput = null;
+    private static Path hotspotOutput = null;
+    private static Path metricsOutput = null;
+    private static Path allocationOutput = null;
+    private static InstrumentedInterpreter instrumented = null;
+    // step budget and allocation quota per script run, -1 for none
+    private static long fuel = -1;
+    private static long quota = -1;
+    private static Path daemonSocket = null;
+    private static Path clientSocket = null;
+    // globals loaded before and saved after a script run
+    private static Path restoreFile = null;
+    private static Path snapshotFile = null;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        int first = 0;
+        while (first < args.length && args[first].startsWith("--")) {
+            if (args[first].equals("--parallel")) {
+                parallelParse = true;
+            } else if (args[first].equals("--lazy")) {
+                lazyParse = true;
+            } else if (args[first].equals("--cache")) {
+                cache = new ProgramCache(ProgramCache.defaultDirectory());
+            } else if (args[first].equals("--profile") && first + 1 < args.length) {
+                profileOutput = Paths.get(args[++first]);
+            } else if (args[first].equals("--hotspots") && first + 1 < args.length) {
+                hotspotOutput = Paths.get(args[++first]);
+            } else if (args[first].equals("--metrics") && first + 1 < args.length) {
+                metricsOutput = Paths.get(args[++first]);
+            } else if (args[first].equals("--allocations") && first + 1 < args.length) {
+                allocationOutput = Paths.get(args[++first]);
+            } else if (args[first].equals("--fuel") && first + 1 < args.length) {
+                fuel = Long.parseLong(args[++first]);
+            } else if (args[first].equals("--quota") && first + 1 < args.length) {
+                quota = Long.parseLong(args[++first]);
+            } else if (args[first].equals("--restore") && first + 1 < args.length) {
+                restoreFile = Paths.get(args[++first]);
+            } else if (args[first].equals("--snapshot") && first + 1 < args.length) {
+                snapshotFile = Paths.get(args[++first]);
+            } else if (args[first].equals("--daemon") && first + 1 < args.length) {
+                daemonSocket = Paths.get(args[++first]);
+            } else if (args[first].equals("--connect") && first + 1 < args.length) {
+                clientSocket = Paths.get(args[++first]);
+            } else {
+                usage();
+            }
+            first++;
+        }
+
+        if (profileOutput != null) startProfiler(profileOutput);
+        if (hotspotOutput != null) startHotspots(hotspotOutput);
+        if (metricsOutput != null) startMetrics(metricsOutput);
+        if (allocationOutput != null) startAllocations(allocationOutput);
+
+        if (daemonSocket != null) {
+            if (args.length - first > 0) usage();
+            LoxEngine engine = new LoxEngine().lazyFunctions(lazyParse).parallelParse(parallelParse).cache(cache);
+            new Daemon(daemonSocket, engine, fuel, quota).serve();
+        } else if (clientSocket != null) {
+            // 脚本在常驻的守护进程里运行，这里只转发输出和退出码
+            if (args.length - first != 1) usage();
+            System.exit(DaemonClient.run(clientSocket, args[first]));
+        } else if (args.length - first > 1) {
+            usage();
+        } else if (args.length - first == 1) {
+            runFile(args[first]);
         } else {
             runPrompt();
         }
     }
 
+    // 退出时（包括 runFile 里的 System.exit）写出采样结果
+    private static void startProfiler(Path output) {
+        Profiler profiler = Profiler.start(1, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                profiler.stop(output);
+            } catch (IOException error) {
+                System.err.println("Cannot write profile " + output + ": " + error.getMessage());
+            }
+        }));
+    }
+
+    private static void startHotspots(Path output) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (instrumented == null) return;
+            List<InstrumentedInterpreter.NodeStats> report = instrumented.report();
+            InstrumentedInterpreter.print(report, System.err, 20);
+            try {
+                InstrumentedInterpreter.write(report, output);
+            } catch (IOException error) {
+                System.err.println("Cannot write hot spots " + output + ": " + error.getMessage());
+            }
+        }));
+    }
+
+    private static void startMetrics(Path output) {
+        try {
+            Metrics.enable();
+        } catch (JMException error) {
+            System.err.println("Cannot register metrics MBean: " + error.getMessage());
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Metrics.write(output);
+            } catch (IOException error) {
+                System.err.println("Cannot write metrics " + output + ": " + error.getMessage());
+            }
+        }));
+    }
+
+    private static void startAllocations(Path output) {
+        AllocationProfiler profiler = AllocationProfiler.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            profiler.stop();
+            List<AllocationProfiler.Site> report = profiler.report();
+            AllocationProfiler.print(report, System.err, 20);
+            try {
+                AllocationProfiler.write(report, output);
+            } catch (IOException error) {
+                System.err.println("Cannot write allocations " + output + ": " + error.getMessage());
+            }
+        }));
+    }
+
+    private static void usage() {
+        System.out.println("Usage: jlox [--parallel] [--lazy] [--cache] [--profile file] [--hotspots file] [--metrics file] [--allocations file] [--fuel steps] [--quota bytes] [--restore file] [--snapshot file] [--daemon socket | --connect socket] [script]");
+        System.exit(64);
+    }
+
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        run(path, new String(bytes, Charset.defaultCharset()), cache);
 
+        if (hadIoError) System.exit(74);
         if (hadError) System.exit(65);
         if (hadRuntimeError) System.exit(70);
     }
@@ -40,42 +168,85 @@ public class Lox {
     private static void runPrompt() throws IOException {
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
+        Session session = new Session(lazyParse);
 
         for (;;) {
             System.out.print("> ");
-            run(reader.readLine());
+            String line = reader.readLine();
+            if (line == null) break;
+
+            // :load 重新提交一个文件，只执行有变化的顶层声明
+            if (line.startsWith(":load ")) {
+                Path path = Paths.get(line.substring(":load ".length()).trim());
+                try {
+                    session.reload(new String(Files.readAllBytes(path), Charset.defaultCharset()));
+                } catch (IOException error) {
+                    System.err.println("Cannot read " + path + ": " + error.getMessage());
+                }
+            } else {
+                session.submit(line);
+            }
 
             hadError = false;
+            hadRuntimeError = false;
+            hadIoError = false;
         }
     }
 
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-        if (hadError) return;
-
-        //Resolver resolver = new Resolver(interpreter);
-        //resolver.resolve(statements);
-        //if (hadError) return;
-
-
-        new Interpreter().interpreter(statements);
+    static void run(String source, ProgramCache cache) {
+        run("<script>", source, cache);
     }
 
-    static void error(int line, String message) {
-        report(line, "", message);
+    static void run(String script, String source, ProgramCache cache) {
+        long start = System.nanoTime();
+        try {
+            runScript(script, source, cache);
+        } finally {
+            if (Metrics.enabled) Metrics.scriptRuns.record(System.nanoTime() - start);
+        }
     }
 
-    static void report(int line, String where, String message) {
-        System.err.println("[Line " + line + "] Error" + where + ": " + message);
-        hadError = true;
-    }
+    private static void runScript(String script, String source, ProgramCache cache) {
+        LoxEngine engine = new LoxEngine().lazyFunctions(lazyParse).parallelParse(parallelParse).cache(cache);
+        Diagnostics diagnostics = new Diagnostics(System.err);
+        CompiledScript compiled = engine.compile(script, source, diagnostics);
+        if (diagnostics.hadError()) {
+            hadError = true;
+            return;
+        }
 
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
+        ExecutionContext context = new ExecutionContext(System.out, diagnostics);
+        if (fuel >= 0) context.fuel(fuel);
+        if (quota >= 0) context.allocationQuota(quota);
+        if (restoreFile != null) {
+            try {
+                context.restore(restoreFile);
+            } catch (IOException error) {
+                System.err.println("Cannot restore " + restoreFile + ": " + error.getMessage());
+                hadIoError = true;
+                return;
+            }
+        }
+        if (hotspotOutput != null) {
+            instrumented = new InstrumentedInterpreter(context.out(), diagnostics, compiled.slots(), true);
+            compiled.execute(context, instrumented);
+        } else {
+            compiled.execute(context);
+        }
+        if (diagnostics.hadError()) hadError = true;
+        if (diagnostics.hadRuntimeError()) hadRuntimeError = true;
+
+        if (snapshotFile != null && !context.failed()) {
+            try {
+                context.snapshot(snapshotFile);
+            } catch (IOException error) {
+                System.err.println("Cannot snapshot " + snapshotFile + ": " + error.getMessage());
+                hadIoError = true;
+            } catch (IllegalArgumentException error) {
+                // 全局变量里有存不下的值，比如 channel
+                System.err.println("Cannot snapshot " + snapshotFile + ": " + error.getMessage());
+                hadError = true;
+            }
+        }
     }
 }
\ No newline at end of file
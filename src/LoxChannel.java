@@ -0,0 +1,219 @@
+package lox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LoxChannel
+ *
+ * Go-style channel for passing values between go() coroutines. A channel
+ * of capacity n buffers n values and makes senders wait when full, which
+ * gives producers backpressure; capacity 0 hands each value over directly,
+ * the sender waits until it has been received. Receiving from a closed,
+ * drained channel returns nil. Waiting uses a lock rather than monitors so
+ * blocked virtual threads release their carrier; waiters sleep until a
+ * send, receive or close wakes them, or the script is stopped.
+ */
+class LoxChannel {
+    // nil cannot be stored in an ArrayDeque
+    private static final Object NIL = new Object();
+
+    private final int capacity;
+    private final ArrayDeque<Object> buffer = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition taken = lock.newCondition();
+    // threads in select() over this channel, unparked when a value arrives or it closes
+    private final List<Thread> selectors = new ArrayList<>();
+    private long sent = 0;
+    private long received = 0;
+    private boolean closed = false;
+
+    LoxChannel(int capacity) {
+        this.capacity = capacity;
+    }
+
+    static void define(Environment natives) {
+        natives.define("channel", new NativeFunction("channel", 1, (interpreter, arguments) -> {
+            Object capacity = arguments.get(0);
+            if (!(capacity instanceof Double) || (double)capacity < 0 || (double)capacity != Math.floor((double)capacity)) {
+                throw NativeFunction.error(interpreter, "channel", "Channel capacity must be a whole number >= 0.");
+            }
+            return new LoxChannel((int)(double)capacity);
+        }));
+        natives.define("send", new NativeFunction("send", 2, (interpreter, arguments) -> {
+            channel(interpreter, "send", arguments.get(0)).send(interpreter, arguments.get(1));
+            return null;
+        }));
+        natives.define("receive", new NativeFunction("receive", 1, (interpreter, arguments) ->
+            channel(interpreter, "receive", arguments.get(0)).receive(interpreter)));
+        natives.define("close", new NativeFunction("close", 1, (interpreter, arguments) -> {
+            channel(interpreter, "close", arguments.get(0)).close();
+            return null;
+        }));
+        natives.define("select", new NativeFunction("select", 1, LoxChannel::select));
+    }
+
+    private static LoxChannel channel(Interpreter interpreter, String name, Object value) {
+        if (value instanceof LoxChannel) return (LoxChannel)value;
+        throw NativeFunction.error(interpreter, name, "Argument to '" + name + "' must be a channel.");
+    }
+
+    void send(Interpreter interpreter, Object value) {
+        lock.lock();
+        try {
+            while (!closed && buffer.size() >= Math.max(capacity, 1)) {
+                await(interpreter, notFull);
+            }
+            if (closed) throw NativeFunction.error(interpreter, "send", "Send on a closed channel.");
+
+            buffer.addLast(value == null ? NIL : value);
+            long ticket = ++sent;
+            notEmpty.signal();
+            wakeSelectors();
+
+            // 无缓冲的 channel：等到接收方取走这个值
+            while (capacity == 0 && received < ticket && !closed) {
+                await(interpreter, taken);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Object receive(Interpreter interpreter) {
+        lock.lock();
+        try {
+            while (buffer.isEmpty() && !closed) {
+                await(interpreter, notEmpty);
+            }
+            return take();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+            taken.signalAll();
+            wakeSelectors();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held; nil once closed and drained.
+    private Object take() {
+        if (buffer.isEmpty()) return null;
+
+        Object value = buffer.removeFirst();
+        received++;
+        notFull.signal();
+        if (capacity == 0) taken.signalAll();
+        return value == NIL ? null : value;
+    }
+
+    // Called with the lock held.
+    private void wakeSelectors() {
+        for (Thread selector : selectors) {
+            LockSupport.unpark(selector);
+        }
+    }
+
+    private void watch(Thread selector, boolean watching) {
+        lock.lock();
+        try {
+            if (watching) {
+                selectors.add(selector);
+            } else {
+                selectors.remove(selector);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Non-blocking receive for select: ready when a value is buffered or the channel is closed.
+    private boolean poll(Object[] value) {
+        lock.lock();
+        try {
+            if (buffer.isEmpty() && !closed) return false;
+            value[0] = take();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void await(Interpreter interpreter, Condition condition) {
+        interpreter.blocked(true);
+        try {
+            interpreter.checkInterrupted();
+            condition.await();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        } finally {
+            interpreter.blocked(false);
+        }
+        interpreter.checkInterrupted();
+    }
+
+    /*
+     * select(channels) receives from whichever channel of the list is ready
+     * first and returns [index, value]. The caller registers with every
+     * channel before polling them, from a rotating start so none is starved,
+     * and parks until a send or close on one of them unparks it.
+     */
+    private static Object select(Interpreter interpreter, List<Object> arguments) {
+        List<Object> elements = LoxList.list(interpreter, "select", arguments.get(0)).elements;
+        if (elements.isEmpty()) throw NativeFunction.error(interpreter, "select", "Select needs at least one channel.");
+
+        LoxChannel[] channels = new LoxChannel[elements.size()];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = channel(interpreter, "select", elements.get(i));
+        }
+
+        Thread self = Thread.currentThread();
+        for (LoxChannel channel : channels) {
+            channel.watch(self, true);
+        }
+        interpreter.blocked(true);
+        try {
+            Object[] value = new Object[1];
+            for (int start = 0;; start = (start + 1) % channels.length) {
+                for (int i = 0; i < channels.length; i++) {
+                    int index = (start + i) % channels.length;
+                    if (channels[index].poll(value)) {
+                        LoxList result = new LoxList();
+                        result.elements.add((double)index);
+                        result.elements.add(value[0]);
+                        return result;
+                    }
+                }
+
+                // 注册在轮询之前，轮询之后到来的值会让 park 立即返回
+                interpreter.checkInterrupted();
+                LockSupport.park(channels);
+            }
+        } finally {
+            interpreter.blocked(false);
+            for (LoxChannel channel : channels) {
+                channel.watch(self, false);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
@@ -25,12 +25,17 @@ public class LoxClass implements LoxCallable {
         return name;
     }
 
+    Map<String, LoxFunction> methods() {
+        return methods;
+    }
+
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
         LoxInstance instance = new LoxInstance(this);
+        interpreter.allocate(AllocationProfiler.Kind.INSTANCE, AllocationProfiler.Kind.INSTANCE.bytes, null);
         LoxFunction initializer = methods.get("init");
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            interpreter.call(initializer.bind(instance), arguments);
         }
 
         return instance;
@@ -0,0 +1,31 @@
+package lox;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+/**
+ * LoxCompiledScript
+ *
+ * javax.script view of a CompiledScript; eval runs it against the context's
+ * bindings without parsing again.
+ */
+class LoxCompiledScript extends javax.script.CompiledScript {
+    private final LoxScriptEngine engine;
+    private final CompiledScript script;
+
+    LoxCompiledScript(LoxScriptEngine engine, CompiledScript script) {
+        this.engine = engine;
+        this.script = script;
+    }
+
+    @Override
+    public Object eval(ScriptContext context) throws ScriptException {
+        return engine.execute(script, context);
+    }
+
+    @Override
+    public ScriptEngine getEngine() {
+        return engine;
+    }
+}
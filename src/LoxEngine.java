@@ -0,0 +1,112 @@
+package lox;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * LoxEngine
+ *
+ * Entry point for embedding Lox: compile a source once into a
+ * CompiledScript, then execute it as often as needed. An engine holds its
+ * options and the modules its scripts import (see Modules), so once
+ * configured it can be shared between threads, and sharing it shares the
+ * loaded modules.
+ *
+ *     CompiledScript script = new LoxEngine().compile("print 1 + 2;");
+ *     script.execute(new ExecutionContext(out));
+ */
+public class LoxEngine {
+    private boolean lazyFunctions = false;
+    private boolean parallelParse = false;
+    private ProgramCache cache = null;
+    private final GlobalSlots slots = new GlobalSlots();
+    // created on first use, once the engine is fully constructed
+    private volatile Modules modules = null;
+
+    public LoxEngine lazyFunctions(boolean lazyFunctions) {
+        this.lazyFunctions = lazyFunctions;
+        return this;
+    }
+
+    public LoxEngine parallelParse(boolean parallelParse) {
+        this.parallelParse = parallelParse;
+        return this;
+    }
+
+    public LoxEngine cache(Path directory) {
+        return cache(directory == null ? null : new ProgramCache(directory));
+    }
+
+    LoxEngine cache(ProgramCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    Modules modules() {
+        Modules modules = this.modules;
+        if (modules != null) return modules;
+
+        synchronized (this) {
+            if (this.modules == null) this.modules = new Modules(this);
+            return this.modules;
+        }
+    }
+
+    GlobalSlots slots() {
+        return slots;
+    }
+
+    public CompiledScript compile(String source) {
+        return compile("<script>", source);
+    }
+
+    // Throws CompileError with all diagnostics when the source does not compile.
+    public CompiledScript compile(String name, String source) {
+        Diagnostics diagnostics = new Diagnostics();
+        CompiledScript script = compile(name, source, diagnostics);
+        if (diagnostics.hadError()) throw new CompileError(diagnostics.all());
+        return script;
+    }
+
+    CompiledScript compile(String name, String source, Diagnostics diagnostics) {
+        List<Stmt> statements = null;
+        if (cache != null) {
+            Phase phase = Phase.start(name, "load");
+            statements = cache.load(source, lazyFunctions, slots);
+            phase.end();
+        }
+
+        if (statements == null) {
+            statements = parse(name, source, diagnostics);
+            if (diagnostics.hadError()) return new CompiledScript(name, statements, modules(), slots);
+
+            if (cache != null) cache.store(source, lazyFunctions, statements);
+        }
+
+        return new CompiledScript(name, statements, modules(), slots);
+    }
+
+    private List<Stmt> parse(String name, String source, Diagnostics diagnostics) {
+        List<Stmt> statements;
+        if (parallelParse) {
+            // 并行模式下扫描和解析在同一个任务里完成
+            Phase phase = Phase.start(name, "parse");
+            statements = new ParallelParser(source, lazyFunctions, diagnostics).parse();
+            phase.end();
+        } else {
+            Phase phase = Phase.start(name, "scan");
+            List<Token> tokens = new Scanner(source, diagnostics).scanTokens();
+            phase.end();
+
+            phase = Phase.start(name, "parse");
+            statements = new Parser(tokens, lazyFunctions, diagnostics).parse();
+            phase.end();
+        }
+        if (diagnostics.hadError()) return statements;
+
+        Phase phase = Phase.start(name, "resolve");
+        new Resolver(diagnostics, slots).resolve(statements);
+        phase.end();
+        return statements;
+    }
+}
@@ -0,0 +1,78 @@
+package lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * LoxEvents
+ *
+ * Java Flight Recorder events for the interpreter. They cost next to nothing
+ * unless a recording has them enabled.
+ */
+class LoxEvents {
+    @Name("lox.Phase")
+    @Label("Lox Phase")
+    @Category("Lox")
+    @Description("One front-end or execution phase of Lox.run")
+    @StackTrace(false)
+    static class Phase extends Event {
+        @Label("Script")
+        String script;
+
+        @Label("Phase")
+        String phase;
+    }
+
+    @Name("lox.Call")
+    @Label("Lox Call")
+    @Category("Lox")
+    @Description("A call of a Lox function that took longer than the threshold")
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static class Call extends Event {
+        @Label("Script")
+        String script;
+
+        @Label("Function")
+        String function;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("lox.Instantiation")
+    @Label("Lox Instantiation")
+    @Category("Lox")
+    @Description("An instance created by calling a Lox class")
+    @StackTrace(false)
+    static class Instantiation extends Event {
+        @Label("Script")
+        String script;
+
+        @Label("Class")
+        String className;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("lox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category("Lox")
+    @StackTrace(false)
+    static class ScriptError extends Event {
+        @Label("Script")
+        String script;
+
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+    }
+}
@@ -10,13 +10,16 @@ import lox.LoxInstance;
  */
 public class LoxFunction implements LoxCallable {
     private final Environment closure;
+    // the globals of the script that declared it; null for the caller's, e.g. after a snapshot restore
+    private final GlobalTable globals;
     private final Stmt.Function declaration;
     private final boolean isInitializer;
 
-    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+    LoxFunction(Stmt.Function declaration, Environment closure, GlobalTable globals, boolean isInitializer) {
         this.isInitializer = isInitializer;
         this.declaration = declaration;
         this.closure = closure;
+        this.globals = globals;
     }
 
     @Override
@@ -24,6 +27,18 @@ public class LoxFunction implements LoxCallable {
         return "<fn " + declaration.name.lexeme + ">";
     }
 
+    Stmt.Function declaration() {
+        return declaration;
+    }
+
+    Environment closure() {
+        return closure;
+    }
+
+    boolean isInitializer() {
+        return isInitializer;
+    }
+
     @Override
     public int arity() {
         return declaration.params.size();
@@ -31,13 +46,30 @@ public class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+        interpreter.checkInterrupted();
+        interpreter.burn(declaration);
+        List<Stmt> body = declaration.body;
+        if (body == null) body = declaration.lazyBody.materialize(declaration);
+
+        // 生成器函数只创建生成器，函数体到第一次 next() 才开始执行
+        if (declaration.generator) return new LoxGenerator(this, body, arguments, interpreter);
+
+        // the body runs here rather than through execute: one frame less per level of Lox recursion
+        try {
+            interpreter.executeBlock(body, environment(arguments), globals);
+        } catch (Return returnValue) {
+            if (isInitializer) return closure.getAt(0, "this");
+            return returnValue.value;
         }
-        
+
+        if (isInitializer) return closure.getAt(0, "this");
+        return null;
+    }
+
+    // Runs a generator's body on its own thread.
+    Object execute(Interpreter interpreter, List<Stmt> body, List<Object> arguments) {
         try {
-            interpreter.executeBlock(declaration.body, environment);
+            interpreter.executeBlock(body, environment(arguments), globals);
         } catch (Return returnValue) {
             if (isInitializer) return closure.getAt(0, "this");
             return returnValue.value;
@@ -47,9 +79,18 @@ public class LoxFunction implements LoxCallable {
         return null;
     }
 
+    private Environment environment(List<Object> arguments) {
+        Environment environment = new Environment(closure);
+        for (int i = 0; i < declaration.params.size(); i++) {
+            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+        }
+        return environment;
+    }
+
     LoxFunction bind(LoxInstance instance) {
         Environment environment = new Environment(closure);
         environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        if (AllocationProfiler.active != null) AllocationProfiler.active.record(AllocationProfiler.Kind.BOUND_METHOD);
+        return new LoxFunction(declaration, environment, globals, isInitializer);
     }
 }
\ No newline at end of file
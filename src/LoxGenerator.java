@@ -0,0 +1,180 @@
+package lox;
+
+import java.lang.ref.Cleaner;
+import java.util.List;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LoxGenerator
+ *
+ * What calling a function whose body contains yield returns. The body runs
+ * on its own virtual thread, started by the first next() and parked at
+ * every yield until the caller asks for the following value, so the frame
+ * is suspended rather than unwound and a generator can produce an unbounded
+ * stream one value at a time. next() returns nil once the body has finished;
+ * hasNext() tells the two apart. A generator dropped before it finished has
+ * its thread interrupted when it is garbage collected.
+ */
+class LoxGenerator {
+    private static final ThreadFactory FRAMES = Thread.ofVirtual().name("lox-gen-", 0).factory();
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    // SynchronousQueue holds no nulls, nil travels as NIL
+    private static final Object NIL = new Object();
+    private static final Object DONE = new Object();
+    private static final Object RESUME = new Object();
+
+    private final Frame frame;
+    // next() and hasNext() may be called from several coroutines
+    private final ReentrantLock lock = new ReentrantLock();
+    // a value hasNext() already pulled, null when there is none
+    private Object lookahead = null;
+    private boolean finished = false;
+
+    // whatever the body threw, rethrown on the thread that resumed it
+    private static class Failure {
+        final Throwable error;
+
+        Failure(Throwable error) {
+            this.error = error;
+        }
+    }
+
+    /*
+     * The suspended body and the two hand-off queues. Only this is reachable
+     * from the generator's thread, never the LoxGenerator itself, so an
+     * abandoned generator can still be collected and its thread stopped.
+     */
+    static class Frame implements Runnable {
+        private final LoxFunction function;
+        private final List<Stmt> body;
+        private final List<Object> arguments;
+        private final Interpreter interpreter;
+        private final SynchronousQueue<Object> resumes = new SynchronousQueue<>();
+        private final SynchronousQueue<Object> values = new SynchronousQueue<>();
+        private volatile Thread thread;
+        // set when interrupted at a yield: no caller is left to take a value
+        private volatile boolean abandoned = false;
+
+        Frame(LoxFunction function, List<Stmt> body, List<Object> arguments, Interpreter interpreter) {
+            this.function = function;
+            this.body = body;
+            this.arguments = arguments;
+            this.interpreter = interpreter;
+        }
+
+        @Override
+        public void run() {
+            try {
+                resumes.take();
+                try {
+                    function.execute(interpreter, body, arguments);
+                    values.put(DONE);
+                } catch (Throwable error) {
+                    // 调用方正等在 values.take()，任何错误都要交给它，否则它会一直等下去
+                    if (!abandoned) values.put(new Failure(error));
+                }
+            } catch (InterruptedException error) {
+                // abandoned
+            } finally {
+                interpreter.refund();
+            }
+        }
+
+        // Called by Interpreter.visitYieldStmt on the generator's thread.
+        void yield(Object value) {
+            try {
+                values.put(value == null ? NIL : value);
+                resumes.take();
+            } catch (InterruptedException error) {
+                abandoned = true;
+                throw new ScriptInterrupted();
+            }
+        }
+
+        void stop() {
+            Thread thread = this.thread;
+            if (thread != null) thread.interrupt();
+        }
+    }
+
+    LoxGenerator(LoxFunction function, List<Stmt> body, List<Object> arguments, Interpreter interpreter) {
+        Interpreter child = interpreter.fork();
+        this.frame = new Frame(function, body, arguments, child);
+        child.generator = frame;
+        CLEANER.register(this, frame::stop);
+    }
+
+    static void define(Environment natives) {
+        natives.define("next", new NativeFunction("next", 1, (interpreter, arguments) ->
+            generator(interpreter, "next", arguments.get(0)).next(interpreter)));
+        natives.define("hasNext", new NativeFunction("hasNext", 1, (interpreter, arguments) ->
+            generator(interpreter, "hasNext", arguments.get(0)).hasNext(interpreter)));
+    }
+
+    private static LoxGenerator generator(Interpreter interpreter, String name, Object value) {
+        if (value instanceof LoxGenerator) return (LoxGenerator)value;
+        throw NativeFunction.error(interpreter, name, "Argument to '" + name + "' must be a generator.");
+    }
+
+    Object next(Interpreter interpreter) {
+        lock.lock();
+        try {
+            Object value = lookahead != null ? lookahead : advance(interpreter, "next");
+            lookahead = null;
+            return value == DONE || value == NIL ? null : value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean hasNext(Interpreter interpreter) {
+        lock.lock();
+        try {
+            if (lookahead == null) lookahead = advance(interpreter, "hasNext");
+            return lookahead != DONE;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Resumes the body until its next yield or its end.
+    private Object advance(Interpreter interpreter, String name) {
+        if (finished) return DONE;
+        if (Thread.currentThread() == frame.thread) {
+            throw NativeFunction.error(interpreter, name, "Generator is already running.");
+        }
+
+        if (frame.thread == null) {
+            frame.thread = FRAMES.newThread(frame);
+            frame.thread.start();
+        }
+
+        Object value;
+        try {
+            frame.resumes.put(RESUME);
+            value = frame.values.take();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            interpreter.checkInterrupted();
+            throw new ScriptInterrupted();
+        }
+
+        if (value instanceof Failure) {
+            finished = true;
+            Throwable error = ((Failure)value).error;
+            if (error instanceof RuntimeException) throw (RuntimeException)error;
+            if (error instanceof Error) throw (Error)error;
+            throw new IllegalStateException(error);
+        }
+        if (value == DONE) finished = true;
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "<generator>";
+    }
+}
@@ -22,18 +22,29 @@ public class LoxInstance {
         
     }
 
+    LoxClass klass() {
+        return klass;
+    }
+
+    Map<String, Object> fields() {
+        return fields;
+    }
+
     Object get(Token name) {
         if (fields.containsKey(name.lexeme)) {
             return fields.get(name.lexeme);
         }
 
         LoxFunction method = klass.findMethod(this, name.lexeme);
-        if (method != null) return method.bind(this);
+        if (method != null) return method;
 
         throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
     }
 
-    public void set(Token name, Object value) {
+    // Returns whether the field is new.
+    public boolean set(Token name, Object value) {
+        int size = fields.size();
         fields.put(name.lexeme, value);
+        return fields.size() != size;
     }
 }
\ No newline at end of file
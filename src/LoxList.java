@@ -0,0 +1,74 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LoxList
+ *
+ * Growable list value, created and used through the list, push, get and
+ * len natives. Not synchronized: parallel tasks may read a list but only
+ * one thread may push to it.
+ */
+class LoxList {
+    final List<Object> elements;
+
+    LoxList() {
+        this(new ArrayList<>());
+    }
+
+    LoxList(List<Object> elements) {
+        this.elements = elements;
+    }
+
+    // a reference in the backing array, counting its growth
+    static final long ELEMENT_BYTES = 8;
+
+    LoxList(Interpreter interpreter, List<Object> elements) {
+        this(elements);
+        interpreter.allocate(AllocationProfiler.Kind.LIST, AllocationProfiler.Kind.LIST.bytes + ELEMENT_BYTES * elements.size(), null);
+    }
+
+    static void define(Environment natives) {
+        natives.define("list", new NativeFunction("list", 0, (interpreter, arguments) ->
+            new LoxList(interpreter, new ArrayList<>())));
+        natives.define("push", new NativeFunction("push", 2, (interpreter, arguments) -> {
+            LoxList list = list(interpreter, "push", arguments.get(0));
+            interpreter.charge(ELEMENT_BYTES, null);
+            list.elements.add(arguments.get(1));
+            return list;
+        }));
+        natives.define("get", new NativeFunction("get", 2, (interpreter, arguments) -> {
+            LoxList list = list(interpreter, "get", arguments.get(0));
+            return list.elements.get(index(interpreter, list, arguments.get(1)));
+        }));
+        natives.define("len", new NativeFunction("len", 1, (interpreter, arguments) -> {
+            Object value = arguments.get(0);
+            if (value instanceof String) return (double)((String)value).length();
+            return (double)list(interpreter, "len", value).elements.size();
+        }));
+    }
+
+    static LoxList list(Interpreter interpreter, String name, Object value) {
+        if (value instanceof LoxList) return (LoxList)value;
+        throw NativeFunction.error(interpreter, name, "Argument to '" + name + "' must be a list.");
+    }
+
+    private static int index(Interpreter interpreter, LoxList list, Object value) {
+        if (value instanceof Double) {
+            double index = (double)value;
+            if (index >= 0 && index < list.elements.size() && index == Math.floor(index)) return (int)index;
+        }
+        throw NativeFunction.error(interpreter, "get", "Index " + Interpreter.stringify(value) + " out of range.");
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("[");
+        for (int i = 0; i < elements.size(); i++) {
+            if (i > 0) text.append(", ");
+            text.append(Interpreter.stringify(elements.get(i)));
+        }
+        return text.append(']').toString();
+    }
+}
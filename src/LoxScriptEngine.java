@@ -0,0 +1,153 @@
+package lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+/**
+ * LoxScriptEngine
+ *
+ * javax.script engine over LoxEngine. Compiled programs are kept in a small
+ * LRU cache keyed by file name and source, so evaluating the same script
+ * again skips scanning, parsing and resolving. Each run starts with a copy
+ * of the engine scope Bindings as its Lox globals, and the globals the run
+ * defined or assigned are put back when it ends; the Bindings are locked
+ * only while copying, so runs on other threads may share them. The global
+ * scope is the fallback for reads and is never written: assigning one of
+ * its names defines a global of the run instead. Lox only has doubles, so
+ * other numbers are converted to Double in the copy and on each read.
+ */
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable {
+    private static final int CACHE_SIZE = 256;
+
+    private final ScriptEngineFactory factory;
+    private final LoxEngine engine = new LoxEngine();
+    private final Map<String, CompiledScript> compiled = Collections.synchronizedMap(
+        new LinkedHashMap<String, CompiledScript>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        });
+
+    LoxScriptEngine(ScriptEngineFactory factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return execute(compiled(name(context), script), context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(read(reader), context);
+    }
+
+    @Override
+    public javax.script.CompiledScript compile(String script) throws ScriptException {
+        return new LoxCompiledScript(this, compiled(name(context), script));
+    }
+
+    @Override
+    public javax.script.CompiledScript compile(Reader reader) throws ScriptException {
+        return compile(read(reader));
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    private CompiledScript compiled(String name, String source) throws ScriptException {
+        String key = name + '\0' + source;
+        CompiledScript script = compiled.get(key);
+        if (script != null) return script;
+
+        try {
+            script = engine.compile(name, source);
+        } catch (CompileError error) {
+            throw exception(name, error.diagnostics());
+        }
+        compiled.put(key, script);
+        return script;
+    }
+
+    Object execute(CompiledScript script, ScriptContext context) throws ScriptException {
+        Bindings globals = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        Bindings fallback = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+
+        // 其他线程可能同时在用同一个 Bindings，只在复制时加锁，不在原地改写
+        Map<String, Object> values = new HashMap<>();
+        synchronized (globals) {
+            for (Map.Entry<String, Object> entry : globals.entrySet()) {
+                values.put(entry.getKey(), GlobalTable.lox(entry.getValue()));
+            }
+        }
+
+        Diagnostics diagnostics = new Diagnostics();
+        PrintWriter out = writer(context.getWriter());
+        Interpreter interpreter = Interpreter.create(out, diagnostics, script.slots(), values, fallback);
+        try {
+            script.run(interpreter);
+        } finally {
+            Map<String, Object> written = interpreter.writtenGlobals();
+            synchronized (globals) {
+                globals.putAll(written);
+            }
+            out.flush();
+        }
+
+        if (diagnostics.hadError() || diagnostics.hadRuntimeError()) {
+            throw exception(script.name(), diagnostics.all());
+        }
+        // Lox 只有语句，没有可以返回的值
+        return null;
+    }
+
+    private static PrintWriter writer(Writer writer) {
+        if (writer instanceof PrintWriter) return (PrintWriter)writer;
+        return new PrintWriter(writer == null ? Writer.nullWriter() : writer);
+    }
+
+    private static String name(ScriptContext context) {
+        Object name = context.getAttribute(ScriptEngine.FILENAME);
+        return name == null ? "<script>" : name.toString();
+    }
+
+    private static ScriptException exception(String name, List<Diagnostic> diagnostics) {
+        Diagnostic first = diagnostics.get(0);
+        return new ScriptException(new CompileError(diagnostics).getMessage(), name, first.line());
+    }
+
+    private static String read(Reader reader) throws ScriptException {
+        StringWriter source = new StringWriter();
+        try {
+            reader.transferTo(source);
+        } catch (IOException error) {
+            throw new ScriptException(error);
+        }
+        return source.toString();
+    }
+}
@@ -0,0 +1,126 @@
+package lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics
+ *
+ * Process-wide interpreter counters and latency histograms. Nothing is
+ * recorded until enable() is called; after that the hooks in Lox.run,
+ * Interpreter, Environment, LoxFunction and LoxClass feed LongAdders.
+ */
+class Metrics implements MetricsMXBean {
+    static boolean enabled = false;
+
+    static final LongAdder statements = new LongAdder();
+    static final LongAdder calls = new LongAdder();
+    static final LongAdder instances = new LongAdder();
+    static final LongAdder environments = new LongAdder();
+    static final LongAdder runtimeErrors = new LongAdder();
+    static final Histogram scriptRuns = new Histogram();
+    private static final Map<String, Histogram> phases = new ConcurrentHashMap<>();
+
+    static void enable() throws JMException {
+        enabled = true;
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new Metrics(), new ObjectName("lox:type=Metrics"));
+    }
+
+    static Histogram phase(String name) {
+        return phases.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    @Override
+    public long getStatementsExecuted() {
+        return statements.sum();
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getInstancesCreated() {
+        return instances.sum();
+    }
+
+    @Override
+    public long getEnvironmentsAllocated() {
+        return environments.sum();
+    }
+
+    @Override
+    public long getRuntimeErrors() {
+        return runtimeErrors.sum();
+    }
+
+    @Override
+    public long getScriptRuns() {
+        return scriptRuns.count();
+    }
+
+    @Override
+    public double getScriptRunSecondsTotal() {
+        return scriptRuns.sumNanos() / 1e9;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseSecondsTotal() {
+        Map<String, Double> totals = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : phases.entrySet()) {
+            totals.put(entry.getKey(), entry.getValue().sumNanos() / 1e9);
+        }
+        return totals;
+    }
+
+    // Prometheus text exposition format.
+    static void write(Path out) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out))) {
+            counter(writer, "lox_statements_executed_total", "Statements executed.", statements);
+            counter(writer, "lox_calls_total", "Lox function calls.", calls);
+            counter(writer, "lox_instances_created_total", "Class instances created.", instances);
+            counter(writer, "lox_environments_allocated_total", "Environments allocated.", environments);
+            counter(writer, "lox_runtime_errors_total", "Runtime errors raised.", runtimeErrors);
+
+            writer.println("# HELP lox_script_run_seconds Wall time of Lox.run.");
+            writer.println("# TYPE lox_script_run_seconds histogram");
+            histogram(writer, "lox_script_run_seconds", "", scriptRuns);
+
+            writer.println("# HELP lox_phase_seconds Time per interpreter phase.");
+            writer.println("# TYPE lox_phase_seconds histogram");
+            for (Map.Entry<String, Histogram> entry : new TreeMap<>(phases).entrySet()) {
+                histogram(writer, "lox_phase_seconds", "phase=\"" + entry.getKey() + "\",", entry.getValue());
+            }
+        }
+    }
+
+    private static void counter(PrintWriter writer, String name, String help, LongAdder value) {
+        writer.println("# HELP " + name + " " + help);
+        writer.println("# TYPE " + name + " counter");
+        writer.println(name + " " + value.sum());
+    }
+
+    private static void histogram(PrintWriter writer, String name, String labels, Histogram histogram) {
+        long cumulative = 0;
+        for (int i = 0; i < Histogram.BUCKETS - 1; i++) {
+            cumulative += histogram.bucket(i);
+            writer.println(name + "_bucket{" + labels + "le=\"" + Histogram.upperBoundSeconds(i) + "\"} " + cumulative);
+        }
+        cumulative += histogram.bucket(Histogram.BUCKETS - 1);
+        writer.println(name + "_bucket{" + labels + "le=\"+Inf\"} " + cumulative);
+        String plain = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+        writer.println(name + "_sum" + plain + " " + histogram.sumNanos() / 1e9);
+        writer.println(name + "_count" + plain + " " + histogram.count());
+    }
+}
@@ -0,0 +1,19 @@
+package lox;
+
+import java.util.Map;
+
+/**
+ * MetricsMXBean
+ *
+ * JMX view of the interpreter metrics, registered as lox:type=Metrics.
+ */
+public interface MetricsMXBean {
+    long getStatementsExecuted();
+    long getCalls();
+    long getInstancesCreated();
+    long getEnvironmentsAllocated();
+    long getRuntimeErrors();
+    long getScriptRuns();
+    double getScriptRunSecondsTotal();
+    Map<String, Double> getPhaseSecondsTotal();
+}
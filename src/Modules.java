@@ -0,0 +1,216 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Modules
+ *
+ * The modules loaded by one LoxEngine. A module is a Lox file run once in
+ * an interpreter of its own, with globals of its own that its functions
+ * keep using wherever they are called from; import links the globals it
+ * left into the importing script, so importers share them with the module
+ * rather than getting copies. Modules are kept per path together with the
+ * file's modification time and size and those of the modules it imported,
+ * so later imports, from any execution of any script of the engine, reuse
+ * them until one of those files changes. Checking a cached module costs a
+ * stat per file and takes no lock. A module is loaded by the first thread
+ * that asks for it; others importing it meanwhile wait for that load only,
+ * and an import that would wait for itself, on this thread or through
+ * others, is reported as a cycle.
+ */
+class Modules {
+    private final LoxEngine engine;
+    private final Map<Path, Module> modules = new ConcurrentHashMap<>();
+    // 正在加载的模块和等待它们的线程；只在记账时加锁，模块代码在锁外运行
+    private final Map<Path, Loading> loading = new HashMap<>();
+    private final Map<Thread, Loading> waiting = new HashMap<>();
+    // modules this thread is loading, innermost last, with what each imported so far
+    private final ThreadLocal<ArrayDeque<Loading>> stack = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private static class Module {
+        final Path path;
+        final FileTime modified;
+        final long size;
+        final GlobalTable globals;
+        final List<Module> imports;
+
+        Module(Path path, BasicFileAttributes attributes, GlobalTable globals, List<Module> imports) {
+            this.path = path;
+            this.modified = attributes.lastModifiedTime();
+            this.size = attributes.size();
+            this.globals = globals;
+            this.imports = imports;
+        }
+    }
+
+    private static class Loading {
+        final Path path;
+        final Thread loader = Thread.currentThread();
+        final CompletableFuture<Module> module = new CompletableFuture<>();
+        final List<Module> imports = new ArrayList<>();
+
+        Loading(Path path) {
+            this.path = path;
+        }
+    }
+
+    Modules(LoxEngine engine) {
+        this.engine = engine;
+    }
+
+    // The globals of the module at path, relative to the importing script's directory.
+    GlobalTable load(Interpreter importer, Token keyword, String name) {
+        Path path = resolve(importer.script, name);
+        Module module = modules.get(path);
+        if (module == null || !fresh(module)) module = load(importer, keyword, name, path);
+
+        // 记录依赖：被依赖的模块变了，导入它的模块也要重新运行
+        ArrayDeque<Loading> stack = this.stack.get();
+        if (!stack.isEmpty()) stack.getLast().imports.add(module);
+        return module.globals;
+    }
+
+    private static Path resolve(String script, String name) {
+        Path base = script.startsWith("<") ? null : Paths.get(script).toAbsolutePath().getParent();
+        Path path = base == null ? Paths.get(name) : base.resolve(name);
+        return path.toAbsolutePath().normalize();
+    }
+
+    private boolean fresh(Module module) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(module.path, BasicFileAttributes.class);
+            if (!attributes.lastModifiedTime().equals(module.modified) || attributes.size() != module.size) return false;
+        } catch (IOException error) {
+            return false;
+        }
+
+        for (Module imported : module.imports) {
+            if (modules.get(imported.path) != imported || !fresh(imported)) return false;
+        }
+        return true;
+    }
+
+    private Module load(Interpreter importer, Token keyword, String name, Path path) {
+        while (true) {
+            Loading mine = new Loading(path);
+            Loading other;
+            synchronized (loading) {
+                other = loading.putIfAbsent(path, mine);
+                if (other != null) {
+                    if (waitsFor(other)) throw new RuntimeError(keyword, "Import cycle through '" + name + "'.");
+                    waiting.put(Thread.currentThread(), other);
+                }
+            }
+
+            if (other == null) return complete(importer, keyword, name, mine);
+            Module module = await(importer, keyword, other);
+            if (module != null) return module;
+            // 加载它的脚本被停止了，由本线程重新加载
+        }
+    }
+
+    // Whether waiting for load would, through the loads their loaders wait for, wait for this thread.
+    private boolean waitsFor(Loading load) {
+        for (Loading next = load; next != null; next = waiting.get(next.loader)) {
+            if (next.loader == Thread.currentThread()) return true;
+        }
+        return false;
+    }
+
+    // The module another thread loaded, or null when that thread was stopped first.
+    private Module await(Interpreter importer, Token keyword, Loading load) {
+        importer.blocked(true);
+        try {
+            importer.checkInterrupted();
+            return load.module.get();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            importer.checkInterrupted();
+            throw new ScriptInterrupted();
+        } catch (ExecutionException error) {
+            Throwable cause = error.getCause();
+            if (cause instanceof ScriptInterrupted) return null;
+            if (cause instanceof RuntimeError) throw new RuntimeError(keyword, cause.getMessage());
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            throw new IllegalStateException(cause);
+        } finally {
+            importer.blocked(false);
+            synchronized (loading) {
+                waiting.remove(Thread.currentThread());
+            }
+        }
+    }
+
+    // Loads the module this thread registered, and hands it to the threads waiting for it.
+    private Module complete(Interpreter importer, Token keyword, String name, Loading load) {
+        try {
+            // 登记之前可能已有线程加载完成
+            Module module = modules.get(load.path);
+            if (module == null || !fresh(module)) {
+                module = run(importer, keyword, name, load);
+                modules.put(load.path, module);
+            }
+            load.module.complete(module);
+            return module;
+        } catch (RuntimeException | Error error) {
+            load.module.completeExceptionally(error);
+            throw error;
+        } finally {
+            synchronized (loading) {
+                loading.remove(load.path);
+            }
+        }
+    }
+
+    private Module run(Interpreter importer, Token keyword, String name, Loading load) {
+        BasicFileAttributes attributes;
+        String source;
+        try {
+            // 先取属性再读内容：读取之后文件若又被改动，下次导入会发现
+            attributes = Files.readAttributes(load.path, BasicFileAttributes.class);
+            source = new String(Files.readAllBytes(load.path), StandardCharsets.UTF_8);
+        } catch (IOException error) {
+            throw new RuntimeError(keyword, "Cannot read module '" + name + "'.");
+        }
+
+        Diagnostics diagnostics = new Diagnostics();
+        CompiledScript script = engine.compile(load.path.toString(), source, diagnostics);
+        if (diagnostics.hadError()) {
+            throw new RuntimeError(keyword, "Cannot compile module '" + name + "': " + diagnostics.all().get(0));
+        }
+
+        // 模块的输出和预算算在第一次导入它的脚本上
+        Interpreter interpreter = Interpreter.create(importer.out(), diagnostics, script.slots());
+        interpreter.fuel = importer.fuel;
+        interpreter.quota = importer.quota;
+
+        ArrayDeque<Loading> stack = this.stack.get();
+        stack.addLast(load);
+        try {
+            script.run(interpreter);
+        } finally {
+            stack.removeLast();
+        }
+        if (diagnostics.hadRuntimeError()) {
+            Diagnostic error = diagnostics.all().get(0);
+            throw new RuntimeError(keyword, "Error in module '" + name + "' [line " + error.line() + "]: " + error.message());
+        }
+
+        return new Module(load.path, attributes, interpreter.globalTable(), load.imports);
+    }
+}
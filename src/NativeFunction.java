@@ -0,0 +1,45 @@
+package lox;
+
+import java.util.List;
+
+/**
+ * NativeFunction
+ *
+ * A function implemented in Java and defined in the interpreter's native
+ * environment next to clock.
+ */
+class NativeFunction implements LoxCallable {
+    interface Body {
+        Object call(Interpreter interpreter, List<Object> arguments);
+    }
+
+    private final String name;
+    private final int arity;
+    private final Body body;
+
+    NativeFunction(String name, int arity, Body body) {
+        this.name = name;
+        this.arity = arity;
+        this.body = body;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return body.call(interpreter, arguments);
+    }
+
+    // Natives have no token of their own; errors point at the calling line.
+    static RuntimeError error(Interpreter interpreter, String name, String message) {
+        return new RuntimeError(new Token(TokenType.IDENTIFIER, name, null, interpreter.callLine), message);
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
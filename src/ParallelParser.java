@@ -0,0 +1,187 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * ParallelParser
+ *
+ * Splits a source file before top-level "fun" and "class" declarations,
+ * scans and parses the chunks on a ForkJoinPool and stitches the statements
+ * back together in source order.
+ */
+public class ParallelParser {
+    // Sources smaller than this are not worth forking for.
+    private static final int MIN_CHUNK_SIZE = 16 * 1024;
+
+    private final String source;
+    private final boolean lazyFunctions;
+    private final ForkJoinPool pool;
+    private final Diagnostics diagnostics;
+    // one per chunk, merged in source order once all chunks are parsed
+    private Diagnostics[] chunkDiagnostics;
+
+    ParallelParser(String source, boolean lazyFunctions, Diagnostics diagnostics) {
+        this(source, lazyFunctions, ForkJoinPool.commonPool(), diagnostics);
+    }
+
+    ParallelParser(String source, boolean lazyFunctions, ForkJoinPool pool, Diagnostics diagnostics) {
+        this.source = source;
+        this.lazyFunctions = lazyFunctions;
+        this.pool = pool;
+        this.diagnostics = diagnostics;
+    }
+
+    List<Stmt> parse() {
+        int target = Math.max(MIN_CHUNK_SIZE, source.length() / (pool.getParallelism() * 4));
+        List<Chunk> chunks = chunks(split(source), target);
+        chunkDiagnostics = new Diagnostics[chunks.size()];
+        List<Stmt> statements;
+        if (chunks.size() == 1) {
+            statements = new ChunkTask(chunks, 0, 1).compute();
+        } else {
+            statements = pool.invoke(new ChunkTask(chunks, 0, chunks.size()));
+        }
+
+        for (Diagnostics chunk : chunkDiagnostics) {
+            diagnostics.addAll(chunk);
+        }
+        return statements;
+    }
+
+    static class Chunk {
+        final int start;
+        final int end;
+        final int line;
+
+        Chunk(int start, int end, int line) {
+            this.start = start;
+            this.end = end;
+            this.line = line;
+        }
+    }
+
+    private class ChunkTask extends RecursiveTask<List<Stmt>> {
+        private final List<Chunk> chunks;
+        private final int from;
+        private final int to;
+
+        ChunkTask(List<Chunk> chunks, int from, int to) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Stmt> compute() {
+            if (to - from == 1) {
+                Chunk chunk = chunks.get(from);
+                String text = source.substring(chunk.start, chunk.end);
+                Diagnostics errors = new Diagnostics();
+                chunkDiagnostics[from] = errors;
+                List<Token> tokens = new Scanner(text, chunk.line, errors).scanTokens();
+                return new Parser(tokens, lazyFunctions, errors).parse();
+            }
+
+            int middle = (from + to) >>> 1;
+            ChunkTask right = new ChunkTask(chunks, middle, to);
+            right.fork();
+            List<Stmt> statements = new ChunkTask(chunks, from, middle).compute();
+            statements.addAll(right.join());
+            return statements;
+        }
+    }
+
+    // Merges adjacent top-level units until each chunk holds roughly target characters.
+    private static List<Chunk> chunks(List<Chunk> units, int target) {
+        List<Chunk> chunks = new ArrayList<>();
+        Chunk first = units.get(0);
+        int start = first.start;
+        int line = first.line;
+        for (Chunk unit : units) {
+            if (unit.start - start >= target) {
+                chunks.add(new Chunk(start, unit.start, line));
+                start = unit.start;
+                line = unit.line;
+            }
+        }
+
+        chunks.add(new Chunk(start, units.get(units.size() - 1).end, line));
+        return chunks;
+    }
+
+    /*
+     * Cuts the source into top-level units. A unit boundary is a "fun" or
+     * "class" keyword outside any braces, parentheses, strings or comments
+     * that follows a ';' or '}', so it always starts a new declaration.
+     */
+    static List<Chunk> split(String source) {
+        List<Chunk> units = new ArrayList<>();
+        int start = 0;
+        int startLine = 1;
+        int line = 1;
+        int depth = 0;
+        char last = ';';
+
+        int i = 0;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c == '\n') {
+                line++;
+                i++;
+            } else if (c == '"') {
+                i++;
+                while (i < source.length() && source.charAt(i) != '"') {
+                    if (source.charAt(i) == '\n') line++;
+                    i++;
+                }
+                i++;
+                last = c;
+            } else if (c == '/' && i + 1 < source.length() && source.charAt(i + 1) == '/') {
+                while (i < source.length() && source.charAt(i) != '\n') i++;
+            } else if (c == '/' && i + 1 < source.length() && source.charAt(i + 1) == '*') {
+                i += 2;
+                while (i < source.length() && !source.startsWith("*/", i)) {
+                    if (source.charAt(i) == '\n') line++;
+                    i++;
+                }
+                i += 2;
+            } else if (isAlpha(c)) {
+                int end = i;
+                while (end < source.length() && isAlphaNumeric(source.charAt(end))) end++;
+
+                if (depth == 0 && (last == ';' || last == '}') && i > start && isDeclaration(source, i, end)) {
+                    units.add(new Chunk(start, i, startLine));
+                    start = i;
+                    startLine = line;
+                }
+                i = end;
+                last = 'a';
+            } else {
+                if (c == '{' || c == '(') depth++;
+                if ((c == '}' || c == ')') && depth > 0) depth--;
+                if (!Character.isWhitespace(c)) last = c;
+                i++;
+            }
+        }
+
+        units.add(new Chunk(start, source.length(), startLine));
+        return units;
+    }
+
+    private static boolean isDeclaration(String source, int start, int end) {
+        int length = end - start;
+        return (length == 3 && source.startsWith("fun", start))
+            || (length == 5 && source.startsWith("class", start));
+    }
+
+    private static boolean isAlpha(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isAlphaNumeric(char c) {
+        return isAlpha(c) || (c >= '0' && c <= '9');
+    }
+}
@@ -46,6 +46,8 @@ import static lox.TokenType.*;
  * assignment     → ( call "." )? IDENTIFIER "=" assignment;
  *                | logic_or ( "?" logic_or ":" logic_or)? ; 
  * 
+ * (logic_or down to multiplication are parsed by precedence climbing
+ *  over the PRECEDENCE table, see Parser.binary)
  * logic_or       → logic_and ( "or" logic_and )* ;
  * logic_and      → equality ( "and" equality )* ;
  * equality       → comparison ( ( "!=" | "==" ) comparison )* ;
@@ -76,11 +78,49 @@ import static lox.TokenType.*;
 public class Parser {
     private static class ParserError extends RuntimeException {}
 
+    // 二元运算符的优先级，按 TokenType 的序号查表，0 表示不是二元运算符
+    private static final int PRECEDENCE_OR = 1;
+    private static final int PRECEDENCE_AND = 2;
+    private static final int PRECEDENCE_EQUALITY = 3;
+    private static final int PRECEDENCE_COMPARISON = 4;
+    private static final int PRECEDENCE_TERM = 5;
+    private static final int PRECEDENCE_FACTOR = 6;
+    private static final int[] PRECEDENCE = new int[TokenType.values().length];
+
+    static {
+        PRECEDENCE[OR.ordinal()] = PRECEDENCE_OR;
+        PRECEDENCE[AND.ordinal()] = PRECEDENCE_AND;
+        PRECEDENCE[BANG_EQUAL.ordinal()] = PRECEDENCE_EQUALITY;
+        PRECEDENCE[EQUAL_EQUAL.ordinal()] = PRECEDENCE_EQUALITY;
+        PRECEDENCE[GREATER.ordinal()] = PRECEDENCE_COMPARISON;
+        PRECEDENCE[GREATER_EQUAL.ordinal()] = PRECEDENCE_COMPARISON;
+        PRECEDENCE[LESS.ordinal()] = PRECEDENCE_COMPARISON;
+        PRECEDENCE[LESS_EQUAL.ordinal()] = PRECEDENCE_COMPARISON;
+        PRECEDENCE[MINUS.ordinal()] = PRECEDENCE_TERM;
+        PRECEDENCE[PLUS.ordinal()] = PRECEDENCE_TERM;
+        PRECEDENCE[SLASH.ordinal()] = PRECEDENCE_FACTOR;
+        PRECEDENCE[STAR.ordinal()] = PRECEDENCE_FACTOR;
+    }
+
     private final List<Token> tokens;
     private int current = 0;
+    private final boolean lazyFunctions;
+    private final Diagnostics diagnostics;
 
     Parser(List<Token> tokens) {
+        this(tokens, false, new Diagnostics(System.err));
+    }
+
+    Parser(List<Token> tokens, boolean lazyFunctions, Diagnostics diagnostics) {
         this.tokens = tokens;
+        this.lazyFunctions = lazyFunctions;
+        this.diagnostics = diagnostics;
+    }
+
+    // 从函数体的第一个 token 开始，解析延迟的函数体
+    Parser(List<Token> tokens, int current, Diagnostics diagnostics) {
+        this(tokens, true, diagnostics);
+        this.current = current;
     }
 
     /*Expr parse() {
@@ -140,6 +180,10 @@ public class Parser {
 
         if (match(RETURN)) return returnStatement();
 
+        if (match(YIELD)) return yieldStatement();
+
+        if (match(IMPORT)) return importStatement();
+
         return expressionStatement();
     }
 
@@ -191,6 +235,7 @@ public class Parser {
 
     // 转换成while语句实现for循环
     private Stmt forStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
         Stmt initializer;
@@ -221,7 +266,7 @@ public class Parser {
         }
 
         if (condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition, body);
+        body = new Stmt.While(keyword, condition, body);
 
         if (initializer != null) {
             body = new Stmt.Block(Arrays.asList(initializer, body));
@@ -231,13 +276,14 @@ public class Parser {
     }
 
     private Stmt whileStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after condition.");
 
         Stmt body = statement();
 
-        return new Stmt.While(condition, body);
+        return new Stmt.While(keyword, condition, body);
     }
 
     private Stmt returnStatement() {
@@ -251,6 +297,24 @@ public class Parser {
         return new Stmt.Return(keyword, value);
     }
 
+    private Stmt yieldStatement() {
+        Token keyword = previous();
+        Expr value = null;
+        if (!check(SEMICOLON)) {
+            value = expression();
+        }
+
+        consume(SEMICOLON, "Expect ';' after yield value.");
+        return new Stmt.Yield(keyword, value);
+    }
+
+    private Stmt importStatement() {
+        Token keyword = previous();
+        Token path = consume(STRING, "Expect module path string after 'import'.");
+        consume(SEMICOLON, "Expect ';' after module path.");
+        return new Stmt.Import(keyword, path);
+    }
+
     private List<Stmt> block() {
         List<Stmt> statements = new ArrayList<>();
 
@@ -263,24 +327,25 @@ public class Parser {
     }
 
     private Expr expression() {
-        return expression("");
+        return expression(true);
     }
     
-    private Expr expression(String kind) {
+    private Expr expression(boolean allowComma) {
         Expr expr = assignment();
 
         // * 如果在解析函数调用参数时，不构造 comma 表达式
-        if (kind != "function") {
+        if (allowComma) {
             while (match(COMMA)) { 
+                Token comma = previous();
                 Expr rightExpr = assignment();
-                expr = new Expr.Binary(expr, previous(), rightExpr);
+                expr = new Expr.Binary(expr, comma, rightExpr);
             }
         }
         return expr;
     }
 
     private Expr assignment() {
-        Expr expr = or();
+        Expr expr = binary(PRECEDENCE_OR);
 
         if (match(EQUAL)) {
             Token equals = previous();
@@ -296,10 +361,10 @@ public class Parser {
 
             error(equals, "Invalid assignment target.");
         } else if (match(QUESTION_MARK)){
-            Expr leftExpr = or();
+            Expr leftExpr = binary(PRECEDENCE_OR);
             Expr rightExpr;
             if (match(COLON)){
-                rightExpr = or();
+                rightExpr = binary(PRECEDENCE_OR);
                 return new Expr.Ternary(expr, leftExpr, rightExpr);
             }
             error(previous(), "expect ':' after ? ");
@@ -308,81 +373,27 @@ public class Parser {
         return expr;
     }
 
-    private Expr or() {
-        Expr expr = and();
-
-        while (match(OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr and() {
-        Expr expr = equality();
-
-        while (match(AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-        
-        return expr;
-    }
-
-    private Expr equality() {
-        Expr expr = comparison();
-
-        while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr comparison() {
-        Expr expr = addition();
-
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = addition();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr addition() {
-        Expr expr = multiplication();
-
-        while (match(MINUS, PLUS)) {
-            Token operator = previous();
-            Expr right = multiplication();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        
-        return expr;
-    }
-
-    private Expr multiplication() {
+    // 优先级爬升：只有优先级不低于 minPrecedence 的运算符才会被当前这层吃掉
+    private Expr binary(int minPrecedence) {
         Expr expr = unary();
 
-        while (match(SLASH, STAR)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
+        while (true) {
+            int precedence = PRECEDENCE[peek().type.ordinal()];
+            if (precedence < minPrecedence) return expr;
+
+            Token operator = advance();
+            Expr right = binary(precedence + 1);
+            if (precedence <= PRECEDENCE_AND) {
+                expr = new Expr.Logical(expr, operator, right);
+            } else {
+                expr = new Expr.Binary(expr, operator, right);
+            }
         }
-        
-        return expr;
     }
 
     private Expr unary() {
-        if (match(BANG, MINUS)) {
-            Token operator = previous();
+        if (check(BANG) || check(MINUS)) {
+            Token operator = advance();
             Expr right = unary();
             return new Expr.Unary(operator, right);
         }
@@ -423,18 +434,47 @@ public class Parser {
         consume(RIGHT_PAREN, "Expect ')' after parameters.");
 
         consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+        if (lazyFunctions) {
+            int end = matchingBrace();
+            if (end != -1) {
+                LazyBody body = new LazyBody(tokens, current, end);
+                current = end + 1;
+                return new Stmt.Function(name, parameters, body);
+            }
+        }
+
         List<Stmt> body = block();
         //consume(RIGHT_BRACE, "Expect '}' after " + kind + "body.");
         return new Stmt.Function(name, parameters, body);
     }
 
+    List<Stmt> functionBody() {
+        return block();
+    }
+
+    // 只做括号匹配，找到函数体结尾的 '}'，找不到时返回 -1
+    private int matchingBrace() {
+        int depth = 1;
+        for (int i = current; i < tokens.size(); i++) {
+            TokenType type = tokens.get(i).type;
+            if (type == LEFT_BRACE) {
+                depth++;
+            } else if (type == RIGHT_BRACE) {
+                depth--;
+                if (depth == 0) return i;
+            }
+        }
+
+        return -1;
+    }
+
     private Expr primary() {
         if (match(FALSE)) return new Expr.Literal(false);
         if (match(TRUE)) return new Expr.Literal(true);
         if (match(NIL)) return new Expr.Literal(null);
 
-        if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
+        if (check(NUMBER) || check(STRING)) {
+            return new Expr.Literal(advance().literal);
         }
 
         if (match(SUPER)) {
@@ -466,12 +506,10 @@ public class Parser {
         return null;
     }
 
-    private boolean match(TokenType...types) {
-        for (TokenType type: types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
+    private boolean match(TokenType type) {
+        if (check(type)) {
+            advance();
+            return true;
         }
 
         return false;
@@ -500,12 +538,8 @@ public class Parser {
         
     }
 
-    static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            Lox.report(token.line, " at end", message);
-        } else {
-            Lox.report(token.line, " at '" + token.lexeme + "'", message);
-        }
+    private void error(Token token, String message) {
+        diagnostics.error(token, message);
     }
 
     private void synchronize() {
@@ -523,6 +557,8 @@ public class Parser {
                 case WHILE:
                 case PRINT:
                 case RETURN:
+                case YIELD:
+                case IMPORT:
                      return;
             }
         }
@@ -531,13 +567,13 @@ public class Parser {
 
     private Expr finishCall(Expr callee) {
         List<Expr> arguments = new ArrayList<>();
-        if (!match(RIGHT_PAREN)) {
+        if (!check(RIGHT_PAREN)) {
             do {
                 if (arguments.size() > 8) {
                     error(peek(), "Cannot have more than 8 arguments.");
                 }
    
-                arguments.add(expression("function"));
+                arguments.add(expression(false));
             } while (match(COMMA));
         }
         
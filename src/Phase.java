@@ -0,0 +1,31 @@
+package lox;
+
+/**
+ * Phase
+ *
+ * Times one phase of Lox.run for both the JFR phase event and the metrics
+ * histogram of that phase.
+ */
+class Phase {
+    private final String name;
+    private final LoxEvents.Phase event;
+    private final long start;
+
+    private Phase(String script, String name) {
+        this.name = name;
+        this.event = new LoxEvents.Phase();
+        this.event.script = script;
+        this.event.phase = name;
+        this.event.begin();
+        this.start = System.nanoTime();
+    }
+
+    static Phase start(String script, String name) {
+        return new Phase(script, name);
+    }
+
+    void end() {
+        event.commit();
+        if (Metrics.enabled) Metrics.phase(name).record(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,132 @@
+package lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Profiler
+ *
+ * Sampling profiler for Lox code. InstrumentedInterpreter pushes a frame
+ * on a per-thread Lox call stack for every call while a profiler is
+ * active; a daemon thread samples all stacks periodically and the totals
+ * are written as collapsed stacks ("a;b;c count" lines) that flamegraph
+ * tools read directly.
+ */
+class Profiler {
+    // null unless profiling; a script started meanwhile runs on an InstrumentedInterpreter
+    static Profiler active = null;
+
+    private static final String ROOT = "<script>";
+
+    private final long intervalNanos;
+    private final Map<Thread, CallStack> stacks = new ConcurrentHashMap<>();
+    private final ThreadLocal<CallStack> current = ThreadLocal.withInitial(this::register);
+    // only touched by the sampler thread until it has stopped
+    private final Map<String, Long> samples = new HashMap<>();
+    private final Thread sampler;
+    private volatile boolean running = true;
+
+    private static class CallStack {
+        // written only by the owning thread, read racily by the sampler
+        volatile Token[] frames = new Token[64];
+        volatile int depth = 0;
+
+        void push(Token frame) {
+            Token[] frames = this.frames;
+            if (depth == frames.length) {
+                Token[] grown = new Token[frames.length * 2];
+                System.arraycopy(frames, 0, grown, 0, depth);
+                this.frames = frames = grown;
+            }
+            frames[depth] = frame;
+            depth = depth + 1;
+        }
+
+        void pop() {
+            depth = depth - 1;
+        }
+    }
+
+    Profiler(long interval, TimeUnit unit) {
+        this.intervalNanos = unit.toNanos(interval);
+        this.sampler = new Thread(this::sample, "lox-profiler");
+        this.sampler.setDaemon(true);
+    }
+
+    static Profiler start(long interval, TimeUnit unit) {
+        Profiler profiler = new Profiler(interval, unit);
+        profiler.sampler.start();
+        active = profiler;
+        return profiler;
+    }
+
+    void enter(Token function) {
+        current.get().push(function);
+    }
+
+    void exit() {
+        current.get().pop();
+    }
+
+    private CallStack register() {
+        CallStack stack = new CallStack();
+        stacks.put(Thread.currentThread(), stack);
+        return stack;
+    }
+
+    private void sample() {
+        StringBuilder key = new StringBuilder();
+        while (running) {
+            LockSupport.parkNanos(intervalNanos);
+
+            for (Map.Entry<Thread, CallStack> entry : stacks.entrySet()) {
+                if (!entry.getKey().isAlive()) {
+                    stacks.remove(entry.getKey());
+                    continue;
+                }
+
+                CallStack stack = entry.getValue();
+                int depth = stack.depth;
+                // 不在任何 Lox 函数里：线程空闲或已经回到别处，不算在 <script> 上
+                if (depth == 0) continue;
+                Token[] frames = stack.frames;
+                key.setLength(0);
+                key.append(ROOT);
+                for (int i = 0; i < depth && i < frames.length; i++) {
+                    Token frame = frames[i];
+                    if (frame == null) break;
+                    key.append(';').append(frame.lexeme).append(':').append(frame.line);
+                }
+                samples.merge(key.toString(), 1L, Long::sum);
+            }
+        }
+    }
+
+    // Stops sampling and writes the collapsed stacks, hottest first.
+    void stop(Path out) throws IOException {
+        if (active == this) active = null;
+        running = false;
+        try {
+            sampler.join();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(samples.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out))) {
+            for (Map.Entry<String, Long> entry : entries) {
+                writer.println(entry.getKey() + " " + entry.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * ProgramCache
+ *
+ * Keeps parsed and resolved programs in a directory, one file per source
+ * keyed by the SHA-256 of the source text.
+ */
+class ProgramCache {
+    private final Path directory;
+
+    ProgramCache(Path directory) {
+        this.directory = directory;
+    }
+
+    static Path defaultDirectory() {
+        String configured = System.getProperty("lox.cache.dir");
+        if (configured != null) return Paths.get(configured);
+
+        return Paths.get(System.getProperty("user.home"), ".cache", "jlox");
+    }
+
+    // Returns null on a miss, or when the cached file cannot be used.
+    List<Stmt> load(String source, boolean lazy, GlobalSlots slots) {
+        Path file = file(source, lazy);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return AstCodec.decode(buffer, slots);
+        } catch (IOException | RuntimeException error) {
+            return null;
+        }
+    }
+
+    void store(String source, boolean lazy, List<Stmt> statements) {
+        Path file = file(source, lazy);
+        try {
+            Files.createDirectories(directory);
+            // 先写临时文件再改名，其他进程不会读到写了一半的文件
+            Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            Files.write(temp, AstCodec.encode(statements));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException error) {
+            // A cache that cannot be written only costs the next run a parse.
+        }
+    }
+
+    private Path file(String source, boolean lazy) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((byte)AstCodec.VERSION);
+            digest.update((byte)(lazy ? 1 : 0));
+            byte[] hash = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+            return directory.resolve(name.append(".loxc").toString());
+        } catch (NoSuchAlgorithmException error) {
+            throw new IllegalStateException(error);
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package lox;
 
-import java.util.Hash;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
@@ -9,9 +9,9 @@ import java.util.Stack;
  * Resolver
  */
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
     private final Stack<Map<String, Boolean>> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
+    private Stmt.Function currentDeclaration = null;
 
     private enum FunctionType {
         NONE,
@@ -28,8 +28,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     private ClassType currentClass = ClassType.NONE;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    private final Diagnostics diagnostics;
+    // numbers the globals; null leaves them to be looked up by name
+    private final GlobalSlots slots;
+
+    Resolver(Diagnostics diagnostics, GlobalSlots slots) {
+        this.diagnostics = diagnostics;
+        this.slots = slots;
     }
 
     void resolve(List<Stmt> statements) {
@@ -38,6 +43,15 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
     }
 
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        // 导入的名字成为全局变量，只能在顶层导入
+        if (currentFunction != FunctionType.NONE || !scopes.isEmpty()) {
+            diagnostics.error(stmt.keyword, "Can only import at the top level.");
+        }
+        return null;
+    }
+
     @Override
     public Void visitClassStmt(Stmt.Class stmt) {
         ClassType enclosingClass = currentClass;
@@ -94,17 +108,19 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
         if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expr.name, "Cannot read local variable in its own initializer.");
+            diagnostics.error(expr.name, "Cannot read local variable in its own initializer.");
         }
 
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        if (expr.depth == -1 && slots != null) expr.slot = slots.slot(expr.name.lexeme);
         return null;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
+        if (expr.depth == -1 && slots != null) expr.slot = slots.slot(expr.name.lexeme);
         return null;
     }
 
@@ -114,7 +130,6 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         define(stmt.name);
 
         resolveFunction(stmt, FunctionType.FUNCTION);
-        resolve(stmt);
         return null;
     }
 
@@ -140,9 +155,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
+        if (currentFunction == FunctionType.NONE) {
+            diagnostics.error(stmt.keyword, "Cannot return from top-level code.");
+        }
+
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword, "Cannot return a value from an initializer.");
+                diagnostics.error(stmt.keyword, "Cannot return a value from an initializer.");
             }
             resolve(stmt.value);
         }
@@ -151,16 +170,17 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
-        if (currentFunction != FunctionType.FUNCTION) {
-            Lox.error(stmt.keyword, "Cannot return from top-level code.");
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        if (currentFunction == FunctionType.NONE) {
+            diagnostics.error(stmt.keyword, "Cannot yield from top-level code.");
+        } else if (currentFunction == FunctionType.INITIALIZER) {
+            diagnostics.error(stmt.keyword, "Cannot yield from an initializer.");
+        } else {
+            // 含有 yield 的函数调用时返回生成器
+            currentDeclaration.generator = true;
         }
 
-
-        if (stmt.value != null) {
-            resolve(stmt.value);
-        }
-        
+        if (stmt.value != null) resolve(stmt.value);
         return null;
     }
 
@@ -223,21 +243,21 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Cannot use 'super' outside of a class.");
+            diagnostics.error(expr.keyword, "Cannot use 'super' outside of a class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword, "Cannot use 'super' in a class with no superclass.");
+            diagnostics.error(expr.keyword, "Cannot use 'super' in a class with no superclass.");
         }
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
         return null;
     }
 
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Cannot use 'this' outside of a class.");
+            diagnostics.error(expr.keyword, "Cannot use 'this' outside of a class.");
             return null;
         }
-        resolveLocal(expr, epxr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
         return null;
     }
 
@@ -247,24 +267,47 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       return null;                               
     }  
 
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        resolve(expr.condition);
+        resolve(expr.leftExpr);
+        resolve(expr.rightExpr);
+        return null;
+    }
 
+    private void resolve(Stmt stmt) {
+        stmt.accept(this);
+    }
 
     private void resolve(Expr expr) {
-        stmt.accept(this);
+        expr.accept(this);
     }
 
     private void resolveFunction(Stmt.Function function, FunctionType type) {
+        // 函数体尚未解析时，记下当前作用域，等第一次调用时再解析
+        if (function.body == null) {
+            function.lazyBody.defer(new Context(scopes, type, currentClass, slots));
+            return;
+        }
+
+        resolveFunction(function, function.body, type);
+    }
+
+    private void resolveFunction(Stmt.Function function, List<Stmt> body, FunctionType type) {
         FunctionType eclosingFunction = currentFunction;
+        Stmt.Function enclosingDeclaration = currentDeclaration;
         currentFunction = type;
+        currentDeclaration = function;
 
         beginScope();
         for (Token param : function.params) {
             declare(param);
             define(param);
         }
-        resolve(function.body);
+        resolve(body);
         endScope();
         currentFunction = eclosingFunction;
+        currentDeclaration = enclosingDeclaration;
     }
 
     private void beginScope() {
@@ -280,7 +323,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         Map<String, Boolean> scope = scopes.peek();
         if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "Variable with this name already declared in this scope.");
+            diagnostics.error(name, "Variable with this name already declared in this scope.");
         }
         scope.put(name.lexeme, false);
     }
@@ -290,15 +333,59 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         scopes.peek().put(name.lexeme, true);
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    // 返回变量所在作用域的距离，找不到时是全局变量，返回 -1
+    private int resolveLocal(Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
             if (scopes.get(i).containsKey(name.lexeme)) {
-            interpreter.resolve(expr, scopes.size() - 1 - i);
-            return;
+                return scopes.size() - 1 - i;
             }
         }
+        return -1;
     }
 
-    private void resolveFunction(Stmt.Function function, FunctionType type) {
+    /**
+     * The scopes enclosing a lazily parsed function, captured at its declaration.
+     */
+    static class Context {
+        private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+        private final FunctionType type;
+        private final ClassType currentClass;
+        private final GlobalSlots slots;
+
+        private Context(List<Map<String, Boolean>> scopes, FunctionType type, ClassType currentClass, GlobalSlots slots) {
+            for (Map<String, Boolean> scope : scopes) {
+                this.scopes.push(new HashMap<>(scope));
+            }
+            this.type = type;
+            this.currentClass = currentClass;
+            this.slots = slots;
+        }
+
+        // 缓存文件中保存的是枚举的序号
+        Context(List<Map<String, Boolean>> scopes, int type, int currentClass, GlobalSlots slots) {
+            this(scopes, FunctionType.values()[type], ClassType.values()[currentClass], slots);
+        }
+
+        List<Map<String, Boolean>> scopes() {
+            return scopes;
+        }
+
+        int type() {
+            return type.ordinal();
+        }
+
+        int currentClass() {
+            return currentClass.ordinal();
+        }
+
+        GlobalSlots slots() {
+            return slots;
+        }
+    }
+
+    void resolveDeferred(Stmt.Function function, List<Stmt> body, Context context) {
+        scopes.addAll(context.scopes);
+        currentClass = context.currentClass;
+        resolveFunction(function, body, context.type);
     }
 }
\ No newline at end of file
@@ -5,8 +5,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import lox.Lox;
-
 import static lox.TokenType.*;
 
 /**
@@ -18,6 +16,7 @@ public class Scanner {
     private int start = 0;
     private int current = 0;
     private int line = 1;
+    private final Diagnostics diagnostics;
     private static final Map<String, TokenType> keywords;
 
     static {
@@ -29,6 +28,7 @@ public class Scanner {
         keywords.put("for", FOR);
         keywords.put("fun", FUN);
         keywords.put("if", IF);
+        keywords.put("import", IMPORT);
         keywords.put("nil", NIL);
         keywords.put("or", OR);
         keywords.put("print", PRINT);
@@ -38,10 +38,22 @@ public class Scanner {
         keywords.put("true", TRUE);
         keywords.put("var", VAR);
         keywords.put("while", WHILE);
+        keywords.put("yield", YIELD);
     }
 
     Scanner(String source) {
+        this(source, new Diagnostics(System.err));
+    }
+
+    Scanner(String source, Diagnostics diagnostics) {
+        this(source, 1, diagnostics);
+    }
+
+    // 从指定行号开始扫描，用于只扫描源码中的一段
+    Scanner(String source, int line, Diagnostics diagnostics) {
         this.source = source;
+        this.line = line;
+        this.diagnostics = diagnostics;
     }
 
     List<Token> scanTokens() {
@@ -137,7 +149,7 @@ public class Scanner {
                     identifier();
                 }
                 else {
-                    Lox.error(line, "Unexpected character.");
+                    diagnostics.error(line, "Unexpected character.");
                 }
                 break;
         }
@@ -177,7 +189,7 @@ public class Scanner {
         }
 
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            diagnostics.error(line, "Unterminated string.");
             return;
         }
 
@@ -0,0 +1,91 @@
+package lox;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * ScriptExecutor
+ *
+ * Runs CompiledScript executions as jobs, each on its own virtual thread, so
+ * jobs blocked in natives do not hold a platform thread. At most
+ * maxConcurrent jobs execute at once; the rest wait (cheaply, on their
+ * virtual threads) for a permit. A job that is not finished by its timeout,
+ * counted from submit, is interrupted and its future fails with
+ * TimeoutException; cancelling the future interrupts the job too.
+ *
+ *     try (ScriptExecutor executor = new ScriptExecutor(1000, Duration.ofSeconds(5))) {
+ *         CompletableFuture<ExecutionContext> job = executor.submit(script, new ExecutionContext(out));
+ *     }
+ */
+public class ScriptExecutor implements AutoCloseable {
+    private final ExecutorService threads = Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("lox-job-", 0).factory());
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "lox-job-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Semaphore permits;
+    private final Duration timeout;
+
+    public ScriptExecutor(int maxConcurrent, Duration timeout) {
+        this.permits = new Semaphore(maxConcurrent);
+        this.timeout = timeout;
+    }
+
+    public CompletableFuture<ExecutionContext> submit(CompiledScript script, ExecutionContext context) {
+        return submit(script, context, timeout);
+    }
+
+    // A null or zero timeout means the job may run for as long as it needs.
+    public CompletableFuture<ExecutionContext> submit(CompiledScript script, ExecutionContext context, Duration timeout) {
+        CompletableFuture<ExecutionContext> result = new CompletableFuture<>();
+        Future<?> job = threads.submit(() -> run(script, context, result));
+
+        if (timeout != null && !timeout.isZero()) {
+            Future<?> deadline = timer.schedule(() -> {
+                if (result.completeExceptionally(new TimeoutException(script.name() + " timed out after " + timeout + "."))) {
+                    job.cancel(true);
+                }
+            }, timeout.toNanos(), TimeUnit.NANOSECONDS);
+            result.whenComplete((value, error) -> deadline.cancel(false));
+        }
+        // 调用方取消 future 时也中断脚本
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) job.cancel(true);
+        });
+        return result;
+    }
+
+    private void run(CompiledScript script, ExecutionContext context, CompletableFuture<ExecutionContext> result) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException error) {
+            return;
+        }
+
+        try {
+            if (!result.isDone()) result.complete(script.execute(context));
+        } catch (ScriptInterrupted error) {
+            // 超时或取消时 future 已经有了结果
+        } catch (Throwable error) {
+            result.completeExceptionally(error);
+        } finally {
+            permits.release();
+        }
+    }
+
+    // Stops accepting jobs and waits for the running ones to finish.
+    @Override
+    public void close() {
+        threads.close();
+        timer.shutdownNow();
+    }
+}
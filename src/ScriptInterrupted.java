@@ -0,0 +1,13 @@
+package lox;
+
+/**
+ * ScriptInterrupted
+ *
+ * Unwinds a script whose thread was interrupted, e.g. by a ScriptExecutor
+ * timeout. Thrown at loop back-edges and function entry.
+ */
+class ScriptInterrupted extends RuntimeException {
+    ScriptInterrupted() {
+        super("Script interrupted.", null, false, false);
+    }
+}
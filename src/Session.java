@@ -0,0 +1,79 @@
+package lox;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Session
+ *
+ * One interpreter kept alive across REPL lines and reloads. A reload only
+ * scans, parses and runs the top-level declarations whose text changed since
+ * they were last submitted.
+ */
+class Session {
+    private final Diagnostics diagnostics = new Diagnostics(System.err);
+    private final boolean lazyFunctions;
+    // numbers the globals and loads the modules the session imports
+    private final LoxEngine engine;
+    private final Interpreter interpreter;
+    // 顶层声明名 → 上次提交时该段的源码
+    private final Map<String, String> declarations = new HashMap<>();
+
+    Session(boolean lazyFunctions) {
+        this.lazyFunctions = lazyFunctions;
+        this.engine = new LoxEngine().lazyFunctions(lazyFunctions);
+        this.interpreter = Interpreter.create(new PrintWriter(System.out, true), diagnostics, engine.slots());
+        this.interpreter.modules = engine.modules();
+    }
+
+    // Runs every statement of a snippet, e.g. a REPL line.
+    void submit(String source) {
+        for (ParallelParser.Chunk unit : ParallelParser.split(source)) {
+            String text = source.substring(unit.start, unit.end);
+            run(text, unit.line);
+        }
+    }
+
+    // Runs only the units of a resubmitted file or region that changed.
+    void reload(String source) {
+        List<ParallelParser.Chunk> units = ParallelParser.split(source);
+        for (int i = 0; i < units.size(); i++) {
+            ParallelParser.Chunk unit = units.get(i);
+            String text = source.substring(unit.start, unit.end);
+            // 第一段之前没有 fun/class 声明，用位置作为键
+            String key = i == 0 ? "" : declaredName(source, unit.start);
+            if (text.equals(declarations.get(key))) continue;
+
+            if (run(text, unit.line)) declarations.put(key, text);
+        }
+    }
+
+    private boolean run(String text, int line) {
+        diagnostics.clear();
+        List<Token> tokens = new Scanner(text, line, diagnostics).scanTokens();
+        List<Stmt> statements = new Parser(tokens, lazyFunctions, diagnostics).parse();
+        if (diagnostics.hadError()) return false;
+
+        new Resolver(diagnostics, engine.slots()).resolve(statements);
+        if (diagnostics.hadError()) return false;
+
+        // 运行失败的段不记下，下次重载时再执行
+        interpreter.interpreter(statements);
+        return !diagnostics.hadRuntimeError();
+    }
+
+    // Units after the first start with "fun NAME" or "class NAME".
+    private static String declaredName(String source, int start) {
+        int keyword = start;
+        while (keyword < source.length() && Character.isLetter(source.charAt(keyword))) keyword++;
+
+        int name = keyword;
+        while (name < source.length() && Character.isWhitespace(source.charAt(name))) name++;
+
+        int end = name;
+        while (end < source.length() && (Character.isLetterOrDigit(source.charAt(end)) || source.charAt(end) == '_')) end++;
+        return source.substring(start, keyword) + " " + source.substring(name, end);
+    }
+}
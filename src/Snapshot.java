@@ -0,0 +1,409 @@
+package lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot
+ *
+ * Saves the globals of a finished execution with everything they reach
+ * (functions and their closures, classes, instances, lists) to a file, so a
+ * later process can start from them without running the script that built
+ * them. Function declarations are stored once each through AstCodec, already
+ * resolved; natives are stored by name. Restored functions read the globals
+ * of whichever script calls them. Channels, tasks and generators hold
+ * threads and cannot be saved.
+ *
+ * Objects are written grouped by kind in an order each can be created in:
+ * environments (enclosing first), functions, classes (superclass first),
+ * instances and lists; their contents follow, so cycles through closures
+ * and fields restore as they were.
+ */
+class Snapshot {
+    private static final int MAGIC = 0x4c4f5853; // "LOXS"
+    private static final int VERSION = 1;
+
+    // value tags
+    private static final byte NIL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte NUMBER = 3;
+    private static final byte STRING = 4;
+    private static final byte NATIVE = 5;
+    private static final byte FUNCTION = 6;
+    private static final byte CLASS = 7;
+    private static final byte INSTANCE = 8;
+    private static final byte LIST = 9;
+
+    static void write(Map<String, Object> globals, Path file) throws IOException {
+        Graph graph = new Graph();
+        for (Object value : globals.values()) {
+            graph.add(value);
+        }
+        graph.drain();
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            new Writer(graph, out).write(globals);
+        }
+    }
+
+    static Map<String, Object> read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return new Reader(in, Files.size(file)).read();
+        } catch (EOFException error) {
+            throw new IOException("Truncated snapshot.", error);
+        } catch (RuntimeException error) {
+            // 解码 AST 或按编号取对象时越界、类型不对：文件被截断或损坏
+            throw new IOException("Truncated or corrupt snapshot: " + error, error);
+        }
+    }
+
+    // Every object reachable from the globals, numbered per kind.
+    private static class Graph {
+        private static final Map<Object, String> NATIVES = new IdentityHashMap<>();
+
+        static {
+            for (Map.Entry<String, Object> entry : Interpreter.NATIVES.entrySet()) {
+                NATIVES.put(entry.getValue(), entry.getKey());
+            }
+        }
+
+        final Map<Environment, Integer> environments = new IdentityHashMap<>();
+        final Map<LoxFunction, Integer> functions = new IdentityHashMap<>();
+        final Map<LoxClass, Integer> classes = new IdentityHashMap<>();
+        final Map<LoxInstance, Integer> instances = new IdentityHashMap<>();
+        final Map<LoxList, Integer> lists = new IdentityHashMap<>();
+        final Map<Stmt.Function, Integer> declarations = new IdentityHashMap<>();
+        // objects whose contents have not been visited yet
+        private final ArrayDeque<Object> pending = new ArrayDeque<>();
+
+        void add(Object value) {
+            if (value == null || value instanceof Boolean || value instanceof Double || value instanceof String) return;
+            if (NATIVES.containsKey(value)) return;
+
+            if (value instanceof LoxFunction) {
+                LoxFunction function = (LoxFunction)value;
+                if (functions.containsKey(function)) return;
+                functions.put(function, functions.size());
+                declarations.putIfAbsent(function.declaration(), declarations.size());
+                environment(function.closure());
+            } else if (value instanceof LoxClass) {
+                LoxClass klass = (LoxClass)value;
+                if (classes.containsKey(klass)) return;
+                if (klass.superclass != null) add(klass.superclass);
+                for (LoxFunction method : klass.methods().values()) {
+                    add(method);
+                }
+                classes.put(klass, classes.size());
+            } else if (value instanceof LoxInstance) {
+                LoxInstance instance = (LoxInstance)value;
+                if (instances.containsKey(instance)) return;
+                add(instance.klass());
+                instances.put(instance, instances.size());
+                pending.add(instance);
+            } else if (value instanceof LoxList) {
+                LoxList list = (LoxList)value;
+                if (lists.containsKey(list)) return;
+                lists.put(list, lists.size());
+                pending.add(list);
+            } else {
+                throw new IllegalArgumentException("A snapshot cannot hold " + value + ".");
+            }
+        }
+
+        private void environment(Environment environment) {
+            if (environments.containsKey(environment)) return;
+            if (environment.enclosing() != null) environment(environment.enclosing());
+            environments.put(environment, environments.size());
+            pending.add(environment);
+        }
+
+        // 内容用队列遍历，长链表或大列表不会压深调用栈
+        void drain() {
+            while (!pending.isEmpty()) {
+                Object object = pending.poll();
+                Iterable<Object> values;
+                if (object instanceof Environment) {
+                    values = ((Environment)object).values().values();
+                } else if (object instanceof LoxInstance) {
+                    values = ((LoxInstance)object).fields().values();
+                } else {
+                    values = ((LoxList)object).elements;
+                }
+                for (Object value : values) {
+                    add(value);
+                }
+            }
+        }
+    }
+
+    private static class Writer {
+        private final Graph graph;
+        private final DataOutputStream out;
+
+        Writer(Graph graph, DataOutputStream out) {
+            this.graph = graph;
+            this.out = out;
+        }
+
+        void write(Map<String, Object> globals) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            List<Stmt> declarations = new ArrayList<>(ordered(graph.declarations));
+            byte[] ast = AstCodec.encode(declarations);
+            out.writeInt(ast.length);
+            out.write(ast);
+
+            List<Environment> environments = ordered(graph.environments);
+            out.writeInt(environments.size());
+            for (Environment environment : environments) {
+                Environment enclosing = environment.enclosing();
+                out.writeInt(enclosing == null ? -1 : graph.environments.get(enclosing));
+            }
+
+            List<LoxFunction> functions = ordered(graph.functions);
+            out.writeInt(functions.size());
+            for (LoxFunction function : functions) {
+                out.writeInt(graph.declarations.get(function.declaration()));
+                out.writeInt(graph.environments.get(function.closure()));
+                out.writeBoolean(function.isInitializer());
+            }
+
+            List<LoxClass> classes = ordered(graph.classes);
+            out.writeInt(classes.size());
+            for (LoxClass klass : classes) {
+                writeString(klass.name);
+                out.writeInt(klass.superclass == null ? -1 : graph.classes.get(klass.superclass));
+                out.writeInt(klass.methods().size());
+                for (Map.Entry<String, LoxFunction> method : klass.methods().entrySet()) {
+                    writeString(method.getKey());
+                    out.writeInt(graph.functions.get(method.getValue()));
+                }
+            }
+
+            List<LoxInstance> instances = ordered(graph.instances);
+            out.writeInt(instances.size());
+            for (LoxInstance instance : instances) {
+                out.writeInt(graph.classes.get(instance.klass()));
+            }
+
+            List<LoxList> lists = ordered(graph.lists);
+            out.writeInt(lists.size());
+
+            for (Environment environment : environments) {
+                writeValues(environment.values());
+            }
+            for (LoxInstance instance : instances) {
+                writeValues(instance.fields());
+            }
+            for (LoxList list : lists) {
+                out.writeInt(list.elements.size());
+                for (Object element : list.elements) {
+                    writeValue(element);
+                }
+            }
+            writeValues(globals);
+        }
+
+        private static <T> List<T> ordered(Map<T, Integer> ids) {
+            List<T> ordered = new ArrayList<>(ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                ordered.add(null);
+            }
+            for (Map.Entry<T, Integer> entry : ids.entrySet()) {
+                ordered.set(entry.getValue(), entry.getKey());
+            }
+            return ordered;
+        }
+
+        private void writeValues(Map<String, Object> values) throws IOException {
+            out.writeInt(values.size());
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                writeString(entry.getKey());
+                writeValue(entry.getValue());
+            }
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NIL);
+            } else if (value instanceof Boolean) {
+                out.writeByte((Boolean)value ? TRUE : FALSE);
+            } else if (value instanceof Double) {
+                out.writeByte(NUMBER);
+                out.writeDouble((Double)value);
+            } else if (value instanceof String) {
+                out.writeByte(STRING);
+                writeString((String)value);
+            } else if (Graph.NATIVES.containsKey(value)) {
+                out.writeByte(NATIVE);
+                writeString(Graph.NATIVES.get(value));
+            } else if (value instanceof LoxFunction) {
+                out.writeByte(FUNCTION);
+                out.writeInt(graph.functions.get(value));
+            } else if (value instanceof LoxClass) {
+                out.writeByte(CLASS);
+                out.writeInt(graph.classes.get(value));
+            } else if (value instanceof LoxInstance) {
+                out.writeByte(INSTANCE);
+                out.writeInt(graph.instances.get(value));
+            } else {
+                out.writeByte(LIST);
+                out.writeInt(graph.lists.get(value));
+            }
+        }
+
+        private void writeString(String string) throws IOException {
+            byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        }
+    }
+
+    private static class Reader {
+        private final DataInputStream in;
+        private Environment[] environments;
+        private LoxFunction[] functions;
+        private LoxClass[] classes;
+        private LoxInstance[] instances;
+        private LoxList[] lists;
+        // the file's length, which no count or string length can exceed
+        private final long limit;
+
+        Reader(DataInputStream in, long limit) {
+            this.in = in;
+            this.limit = limit;
+        }
+
+        Map<String, Object> read() throws IOException {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a Lox snapshot.");
+            }
+
+            byte[] ast = new byte[count()];
+            in.readFully(ast);
+            // 恢复时还不知道由哪个引擎运行，全局变量按名字查找
+            List<Stmt> declarations = AstCodec.decode(ByteBuffer.wrap(ast), null);
+
+            environments = new Environment[count()];
+            for (int i = 0; i < environments.length; i++) {
+                int enclosing = in.readInt();
+                environments[i] = new Environment(enclosing == -1 ? null : environments[enclosing]);
+            }
+
+            functions = new LoxFunction[count()];
+            for (int i = 0; i < functions.length; i++) {
+                Stmt.Function declaration = (Stmt.Function)declarations.get(in.readInt());
+                functions[i] = new LoxFunction(declaration, environments[in.readInt()], null, in.readBoolean());
+            }
+
+            classes = new LoxClass[count()];
+            for (int i = 0; i < classes.length; i++) {
+                String name = readString();
+                int superclass = in.readInt();
+                Map<String, LoxFunction> methods = new HashMap<>();
+                int count = count();
+                for (int j = 0; j < count; j++) {
+                    methods.put(readString(), functions[in.readInt()]);
+                }
+                classes[i] = new LoxClass(name, superclass == -1 ? null : classes[superclass], methods);
+            }
+
+            instances = new LoxInstance[count()];
+            for (int i = 0; i < instances.length; i++) {
+                instances[i] = new LoxInstance(classes[in.readInt()]);
+            }
+
+            lists = new LoxList[count()];
+            for (int i = 0; i < lists.length; i++) {
+                lists[i] = new LoxList();
+            }
+
+            for (Environment environment : environments) {
+                readValues(environment.values());
+            }
+            for (LoxInstance instance : instances) {
+                readValues(instance.fields());
+            }
+            for (LoxList list : lists) {
+                int size = count();
+                for (int i = 0; i < size; i++) {
+                    list.elements.add(readValue());
+                }
+            }
+
+            Map<String, Object> globals = new LinkedHashMap<>();
+            readValues(globals);
+            return globals;
+        }
+
+        private void readValues(Map<String, Object> values) throws IOException {
+            int size = count();
+            for (int i = 0; i < size; i++) {
+                values.put(readString(), readValue());
+            }
+        }
+
+        private Object readValue() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NIL:
+                    return null;
+                case TRUE:
+                    return true;
+                case FALSE:
+                    return false;
+                case NUMBER:
+                    return in.readDouble();
+                case STRING:
+                    return readString();
+                case NATIVE: {
+                    String name = readString();
+                    if (!Interpreter.NATIVES.containsKey(name)) throw new IOException("Unknown native '" + name + "'.");
+                    return Interpreter.NATIVES.get(name);
+                }
+                case FUNCTION:
+                    return functions[in.readInt()];
+                case CLASS:
+                    return classes[in.readInt()];
+                case INSTANCE:
+                    return instances[in.readInt()];
+                case LIST:
+                    return lists[in.readInt()];
+            }
+
+            throw new IOException("Unknown value tag " + tag + ".");
+        }
+
+        private String readString() throws IOException {
+            byte[] utf8 = new byte[count()];
+            in.readFully(utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        // A count or length, checked before anything is allocated for it.
+        private int count() throws IOException {
+            int count = in.readInt();
+            if (count < 0 || count > limit) {
+                throw new IOException("Truncated or corrupt snapshot: count " + count + " does not fit in the file.");
+            }
+            return count;
+        }
+    }
+}
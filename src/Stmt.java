@@ -12,7 +12,9 @@ abstract class Stmt {
     R visitWhileStmt(While stmt);
     R visitFunctionStmt(Function stmt);
     R visitReturnStmt(Return stmt);
+    R visitYieldStmt(Yield stmt);
     R visitClassStmt(Class stmt);
+    R visitImportStmt(Import stmt);
   }
 
   static class Block extends Stmt {
@@ -87,7 +89,8 @@ abstract class Stmt {
     }
 
   static class While extends Stmt {
-    While(Expr condition, Stmt body) {
+    While(Token keyword, Expr condition, Stmt body) {
+      this.keyword = keyword;
       this.condition = condition;
       this.body = body;
     }
@@ -96,6 +99,7 @@ abstract class Stmt {
       return visitor.visitWhileStmt(this);
     }
 
+    final Token keyword;
     final Expr condition;
     final Stmt body;
 
@@ -106,6 +110,14 @@ abstract class Stmt {
       this.name = name;
       this.params = params;
       this.body = body;
+      this.lazyBody = null;
+    }
+
+    Function(Token name, List<Token> params, LazyBody lazyBody) {
+      this.name = name;
+      this.params = params;
+      this.body = null;
+      this.lazyBody = lazyBody;
     }
 
     <R> R accept(Visitor<R> visitor) {
@@ -114,7 +126,11 @@ abstract class Stmt {
 
     final Token name;
     final List<Token> params;
-    final List<Stmt> body;
+    // null until a lazily parsed body is first called
+    volatile List<Stmt> body;
+    final LazyBody lazyBody;
+    // set by the Resolver when the body contains a yield
+    boolean generator;
 
     }
 
@@ -133,6 +149,21 @@ abstract class Stmt {
 
     }
 
+  static class Yield extends Stmt {
+    Yield(Token keyword, Expr value) {
+      this.keyword = keyword;
+      this.value = value;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitYieldStmt(this);
+    }
+
+    final Token keyword;
+    final Expr value;
+
+    }
+
   static class Class extends Stmt {
     Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
       this.name = name;
@@ -150,5 +181,20 @@ abstract class Stmt {
 
     }
 
+  static class Import extends Stmt {
+    Import(Token keyword, Token path) {
+      this.keyword = keyword;
+      this.path = path;
+    }
+
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitImportStmt(this);
+    }
+
+    final Token keyword;
+    final Token path;
+
+    }
+
   abstract <R> R accept(Visitor<R> visitor);
 }
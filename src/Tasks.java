@@ -0,0 +1,187 @@
+package lox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Tasks
+ *
+ * The spawn, join and parallelMap natives, which run CPU-bound work on a
+ * shared work-stealing ForkJoinPool, and go, which starts a coroutine on its
+ * own virtual thread for work that blocks on channels or I/O. Every task
+ * gets an Interpreter forked from the caller's: same globals and output,
+ * separate call state. Tasks may read anything their closures capture but
+ * should not assign to shared variables, environments are not
+ * synchronized; use channels to pass values between coroutines. When the
+ * script's top level returns, its tasks and coroutines are stopped, and the
+ * script only ends once its coroutines have.
+ */
+class Tasks {
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private static final ThreadFactory COROUTINES = Thread.ofVirtual().name("lox-go-", 0).factory();
+
+    static class LoxTask {
+        final ForkJoinTask<Object> task;
+
+        LoxTask(ForkJoinTask<Object> task) {
+            this.task = task;
+        }
+
+        @Override
+        public String toString() {
+            return "<task>";
+        }
+    }
+
+    static void define(Environment natives) {
+        natives.define("spawn", new NativeFunction("spawn", 1, Tasks::spawn));
+        natives.define("join", new NativeFunction("join", 1, Tasks::join));
+        natives.define("parallelMap", new NativeFunction("parallelMap", 2, Tasks::parallelMap));
+        natives.define("go", new NativeFunction("go", 1, Tasks::go));
+    }
+
+    private static Object go(Interpreter interpreter, List<Object> arguments) {
+        LoxCallable function = callable(interpreter, "go", arguments.get(0), 0);
+        Interpreter child = interpreter.fork();
+        Thread thread = COROUTINES.newThread(() -> {
+            try {
+                child.call(function, Collections.emptyList());
+            } catch (RuntimeError error) {
+                // 没有人等待协程的结果，错误直接报告给脚本
+                child.diagnostics.runtimeError(error);
+            } catch (ScriptInterrupted error) {
+                // the script was stopped, nothing to report
+            } finally {
+                child.refund();
+                child.coroutine(Thread.currentThread(), false);
+            }
+        });
+        child.coroutine(thread, true);
+        thread.start();
+        return null;
+    }
+
+    private static Object spawn(Interpreter interpreter, List<Object> arguments) {
+        LoxCallable function = callable(interpreter, "spawn", arguments.get(0), 0);
+        Interpreter child = interpreter.fork();
+        ForkJoinTask<Object> task = ForkJoinTask.adapt(() -> {
+            try {
+                return child.call(function, Collections.emptyList());
+            } finally {
+                child.refund();
+            }
+        });
+        if (inPool()) {
+            task.fork();
+        } else {
+            POOL.execute(task);
+        }
+        return new LoxTask(task);
+    }
+
+    private static Object join(Interpreter interpreter, List<Object> arguments) {
+        if (!(arguments.get(0) instanceof LoxTask)) {
+            throw NativeFunction.error(interpreter, "join", "Argument to 'join' must be a task.");
+        }
+        return await(interpreter, ((LoxTask)arguments.get(0)).task);
+    }
+
+    private static Object parallelMap(Interpreter interpreter, List<Object> arguments) {
+        LoxList list = LoxList.list(interpreter, "parallelMap", arguments.get(0));
+        LoxCallable function = callable(interpreter, "parallelMap", arguments.get(1), 1);
+
+        Object[] results = new Object[list.elements.size()];
+        int grain = Math.max(1, results.length / (POOL.getParallelism() * 4));
+        MapTask task = new MapTask(interpreter, function, list.elements, results, 0, results.length, grain);
+        if (inPool()) {
+            task.invoke();
+        } else {
+            POOL.execute(task);
+            await(interpreter, task);
+        }
+        return new LoxList(interpreter, Arrays.asList(results));
+    }
+
+    private static class MapTask extends RecursiveAction {
+        private final Interpreter parent;
+        private final LoxCallable function;
+        private final List<Object> elements;
+        private final Object[] results;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        MapTask(Interpreter parent, LoxCallable function, List<Object> elements, Object[] results,
+                int from, int to, int grain) {
+            this.parent = parent;
+            this.function = function;
+            this.elements = elements;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                Interpreter child = parent.fork();
+                try {
+                    for (int i = from; i < to; i++) {
+                        results[i] = child.call(function, Collections.singletonList(elements.get(i)));
+                    }
+                } finally {
+                    child.refund();
+                }
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new MapTask(parent, function, elements, results, from, middle, grain),
+                      new MapTask(parent, function, elements, results, middle, to, grain));
+        }
+    }
+
+    /*
+     * POOL's workers help with other tasks while they wait. Any other thread
+     * blocks interruptibly, so a timed-out script stops waiting, and its
+     * tasks, which share its interpreter's stop flag, stop at their next
+     * loop iteration or call.
+     */
+    private static <T> T await(Interpreter interpreter, ForkJoinTask<T> task) {
+        if (inPool()) return task.join();
+
+        try {
+            return task.get();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            interpreter.checkInterrupted();
+            throw new ScriptInterrupted();
+        } catch (CancellationException error) {
+            throw new ScriptInterrupted();
+        } catch (ExecutionException error) {
+            Throwable cause = error.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    // Only POOL's own workers fork and help; other pools, e.g. the common pool, submit to POOL.
+    private static boolean inPool() {
+        return ForkJoinTask.getPool() == POOL;
+    }
+
+    private static LoxCallable callable(Interpreter interpreter, String name, Object value, int arity) {
+        if (value instanceof LoxCallable && ((LoxCallable)value).arity() == arity) return (LoxCallable)value;
+        throw NativeFunction.error(interpreter, name, "Argument to '" + name + "' must be a function of " + arity
+            + (arity == 1 ? " argument." : " arguments."));
+    }
+}